@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Plans the runs of an adaptive sweep over multiples of the injection step,
+ * up to maxStep. The multiple doubles until a run saturates, then the gap
+ * between the highest multiple that did not and the lowest that did is
+ * bisected down to one step. The remaining runs go to the midpoints of the
+ * intervals over which the latency rises most, which lie about the knee.
+ * Nothing at or above a saturated multiple is run after it is found
+ */
+public class AdaptiveSweep {
+
+	/*
+	 * Runs the simulation at a multiple of the injection step, deciding from
+	 * its result whether it saturated, and gives its latency if not
+	 */
+	public interface Runner {
+		public boolean run(int step);
+		public double latency();
+	}
+
+	private final int     m_maxStep;
+	private final int     m_kneeRuns;
+	private int           m_lo;
+	private int           m_hi;
+	private List<Integer> m_steps;
+	private TreeMap<Integer, Double> m_latency;
+
+	public AdaptiveSweep(int maxStep, int kneeRuns) {
+		m_maxStep = maxStep;
+		m_kneeRuns = kneeRuns;
+		m_steps = new ArrayList<Integer>();
+		m_latency = new TreeMap<Integer, Double>();
+	}
+
+	public void run(Runner runner) {
+		m_lo = 0;
+		m_hi = m_maxStep + 1;
+		m_steps.clear();
+		m_latency.clear();
+
+		// Bracket the saturation point
+		for(int i=1; m_hi > m_maxStep && m_lo < m_maxStep; i=Math.min(2*i, m_maxStep)) {
+			if(run(runner, i))
+				m_hi = i;
+			else
+				m_lo = i;
+		}
+
+		// Bisect it
+		while(m_hi <= m_maxStep && m_hi - m_lo > 1) {
+			int mid = (m_lo + m_hi) / 2;
+			if(run(runner, mid))
+				m_hi = mid;
+			else
+				m_lo = mid;
+		}
+
+		// Refine the knee
+		for(int k=0; k<m_kneeRuns; k++) {
+			int mid = -1;
+			double rise = 0;
+			Map.Entry<Integer, Double> prev = null;
+			for(Map.Entry<Integer, Double> e : m_latency.entrySet()) {
+				if(prev != null && e.getKey() - prev.getKey() > 1 &&
+						e.getValue() - prev.getValue() > rise) {
+					rise = e.getValue() - prev.getValue();
+					mid = (prev.getKey() + e.getKey()) / 2;
+				}
+				prev = e;
+			}
+			if(mid < 0)
+				break;
+			if(run(runner, mid)) {
+				m_latency.tailMap(mid).clear();
+				m_hi = mid;
+				m_lo = m_latency.isEmpty() ? 0 : m_latency.lastKey();
+			}
+		}
+	}
+
+	/*
+	 * Run at a multiple of the step, recording the latency if it did not
+	 * saturate
+	 */
+	private boolean run(Runner runner, int step) {
+		m_steps.add(step);
+		if(runner.run(step))
+			return true;
+		m_latency.put(step, runner.latency());
+		return false;
+	}
+
+	/*
+	 * The highest multiple that did not saturate below the lowest that did,
+	 * which is maxStep+1 if none did
+	 */
+	public int lo() { return m_lo; }
+	public int hi() { return m_hi; }
+
+	/*
+	 * The multiples run, in order
+	 */
+	public List<Integer> steps() { return m_steps; }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AdaptiveSweep_test {
+
+	/*
+	 * Saturates at and above a step, with the latency rising towards it
+	 */
+	private static class FakeRunner implements AdaptiveSweep.Runner {
+		private final int m_saturation;
+		private int m_step;
+
+		FakeRunner(int saturation) { m_saturation = saturation; }
+
+		public boolean run(int step) {
+			m_step = step;
+			return step >= m_saturation;
+		}
+
+		public double latency() { return 1000.0 / (m_saturation - m_step); }
+	}
+
+	@Test
+	public void testFindsSaturation() {
+		AdaptiveSweep s = new AdaptiveSweep(100, 4);
+		s.run(new FakeRunner(23));
+		assertEquals(22, s.lo());
+		assertEquals(23, s.hi());
+
+		// Bracket 1..32, bisect to 23, then four knee runs below it, the
+		// first where the latency rises most
+		assertEquals(14, s.steps().size());
+		assertEquals(21, (int) s.steps().get(10));
+		for(int i=10; i<14; i++) {
+			assertTrue(s.steps().get(i) < 22);
+			assertTrue(s.steps().get(i) > 8);
+		}
+	}
+
+	@Test
+	public void testNeverSaturates() {
+		AdaptiveSweep s = new AdaptiveSweep(10, 0);
+		s.run(new FakeRunner(1000));
+		assertEquals(10, s.lo());
+		assertEquals(11, s.hi());
+		assertEquals(5, s.steps().size());
+		assertEquals(10, (int) s.steps().get(4));
+	}
+
+	@Test
+	public void testSaturatesAtOnce() {
+		AdaptiveSweep s = new AdaptiveSweep(100, 4);
+		s.run(new FakeRunner(1));
+		assertEquals(0, s.lo());
+		assertEquals(1, s.hi());
+		assertEquals(1, s.steps().size());
+	}
+}
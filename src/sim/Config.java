@@ -61,9 +61,14 @@ public class Config {
 		ONOFF,
 		TRACE
 	}
+	public enum EngineType {
+		SERIAL,
+		PARALLEL
+	}
 	
 	// Parameter map
 	private static Map<String, Object> m_params;
+	private static SimParams           m_snapshot;
 	private static String              m_date;
 	private Config() {}
 	
@@ -168,6 +173,9 @@ public class Config {
 				break;
 			}
 			
+			// Routing table cache directory is optional
+			getStrProperty(properties, "routing_cache");
+			
 		} else {
 			throw new Exception("no 'routing' key");
 		}
@@ -259,6 +267,12 @@ public class Config {
 		getIntProperty(properties,  "buffer_size");
 		getIntProperty(properties,  "link_delay");
 		getSeedProperty(properties, "rand_seed");
+		
+		// Simulation engine is optional and defaults to serial
+		if(properties.containsKey("engine"))
+			setParam("engine", EngineType.valueOf(properties.getProperty("engine").toUpperCase()));
+		getIntProperty(properties,  "threads");
+		getIntProperty(properties,  "event_log");
 	}
 
 	private static void readDebugSimParams(Properties properties) 
@@ -275,7 +289,15 @@ public class Config {
 		getIntProperty(properties, "warmup_period");
 		getIntProperty(properties, "latency_thresh");
 		getDubProperty(properties, "warmup_thresh");
+		getBoolProperty(properties, "warmup_mser");
+		getDubProperty(properties, "precision");
+		getIntProperty(properties, "max_samples");
 		getBoolProperty(properties, "run_forever");
+		getStrProperty(properties,  "metrics");
+		getStrProperty(properties,  "sweep");
+		getBoolProperty(properties, "warm_start");
+		getStrProperty(properties,  "checkpoint");
+		getStrProperty(properties,  "restore");
 	}
 	
 	public static void setDefaultParams() {
@@ -297,12 +319,16 @@ public class Config {
 		
 		// Routing
 		setParam("routing",           RoutingType.UPDOWN);
+		setParam("routing_cache",     "");
 		
 		// Network
 		setParam("num_vcs",           3);
 		setParam("available_vcs",     3);
 		setParam("buffer_size",       5);
 		setParam("link_delay",        4);
+		setParam("engine",            EngineType.SERIAL);
+		setParam("threads",           0);
+		setParam("event_log",         0);
 		
 		// Simulation
 		setParam("max_msgs",          1000);
@@ -316,6 +342,14 @@ public class Config {
 		setParam("warmup_period",     0);
 		setParam("latency_thresh",    4000);
 		setParam("warmup_thresh",     0.05);
+		setParam("warmup_mser",       false);
+		setParam("precision",         0.0);
+		setParam("max_samples",       0);
+		setParam("metrics",           "");
+		setParam("sweep",             "");
+		setParam("warm_start",        false);
+		setParam("checkpoint",        "");
+		setParam("restore",           "");
 		
 		// Traffic
 		setParam("traffic_pattern",   TrafficType.UNIFORM);
@@ -371,6 +405,20 @@ public class Config {
 	
 	private static void setParam(String key, Object value) {
 		m_params.put(key, value);
+		m_snapshot = null;
+	}
+	
+	/*
+	 * Return the snapshot of the parameters read every cycle, rebuilding it 
+	 * if a parameter has changed since it was last taken
+	 */
+	public static SimParams params() {
+		SimParams snapshot = m_snapshot;
+		if(snapshot == null) {
+			snapshot = new SimParams();
+			m_snapshot = snapshot;
+		}
+		return snapshot;
 	}
 	
 	private static int getIntParam(String key) {
@@ -426,6 +474,58 @@ public class Config {
 		else if(key.equals("steps")) {
 			setParam(key, Integer.parseInt(value));
 		}
+		
+		else if(key.equals("engine")) {
+			setParam(key, EngineType.valueOf(value.toUpperCase()));
+		}
+		
+		else if(key.equals("threads")) {
+			setParam(key, Integer.parseInt(value));
+		}
+		
+		else if(key.equals("routing_cache")) {
+			setParam(key, value);
+		}
+		
+		else if(key.equals("event_log")) {
+			setParam(key, Integer.parseInt(value));
+		}
+		
+		else if(key.equals("metrics")) {
+			setParam(key, value);
+		}
+		
+		else if(key.equals("warmup_mser")) {
+			setParam(key, Boolean.parseBoolean(value));
+		}
+		
+		else if(key.equals("precision")) {
+			setParam(key, Double.parseDouble(value));
+		}
+		
+		else if(key.equals("max_samples")) {
+			setParam(key, Integer.parseInt(value));
+		}
+		
+		else if(key.equals("sweep")) {
+			setParam(key, value);
+		}
+		
+		else if(key.equals("rand_seed")) {
+			setParam(key, Long.valueOf(Long.parseLong(value)));
+		}
+		
+		else if(key.equals("warm_start")) {
+			setParam(key, Boolean.parseBoolean(value));
+		}
+		
+		else if(key.equals("checkpoint")) {
+			setParam(key, value);
+		}
+		
+		else if(key.equals("restore")) {
+			setParam(key, value);
+		}
 	}
 	
 	public static void setRouting(RoutingType routing) {
@@ -452,6 +552,7 @@ public class Config {
 		s += "  Buffer size:             "+bufferSize()+"\n";
 		s += "  Link delay:              "+linkDelay()+"\n";
 		s += "[SIMULATION]=======================================\n";
+		s += "  Engine (threads):        "+engine()+" ("+threads()+")\n";
 		s += "  Random seed:             "+seed()+"\n";
 		s += "  Num simulation runs      "+simRuns()+"\n";
 		s += "  Sample period (cycles):  "+samplePeriod()+"\n";
@@ -521,6 +622,7 @@ public class Config {
 	public static RoutingType  routing()        { return (RoutingType) m_params.get("routing"); }
 	public static TrafficType  traffic()        { return (TrafficType) m_params.get("traffic_pattern"); }
 	public static InjProcess   injection()      { return (InjProcess) m_params.get("injection_process"); }
+	public static EngineType   engine()         { return (EngineType) m_params.get("engine"); }
 	public static int          k()              { return getIntParam("k"); }
 	public static int          n()              { return getIntParam("n"); }
 	public static int          d()              { return getIntParam("d"); }
@@ -531,6 +633,12 @@ public class Config {
 	public static int          steps()          { return getIntParam("steps"); }
 	public static int          numNodes()       { return getIntParam("num_nodes"); }
 	public static String       traceFile()      { return getStrParam("trace_file"); }
+	public static String       routingCache()   { return getStrParam("routing_cache"); }
+	public static String       metrics()        { return getStrParam("metrics"); }
+	public static String       sweep()          { return getStrParam("sweep"); }
+	public static boolean      warmStart()      { return getBoolParam("warm_start"); }
+	public static String       checkpoint()     { return getStrParam("checkpoint"); }
+	public static String       restore()        { return getStrParam("restore"); }
 	public static String	   mapReduceDirectory()	{ return getStrParam("input_directory"); }
 	public static String	   mapReduceMaster(){ return getStrParam("map_reduce_master"); }
 	public static double       injectionRate()  { return getDubParam("injection_rate"); }
@@ -542,6 +650,9 @@ public class Config {
 	public static int          maxMsgs()        { return getIntParam("max_msgs"); }
 	public static int          warmupPeriod()   { return getIntParam("warmup_period"); }
 	public static int          linkDelay()      { return getIntParam("link_delay"); }
+	public static int          threads()        { return getIntParam("threads") > 0 ? getIntParam("threads") : 
+	                                                     Runtime.getRuntime().availableProcessors(); }
+	public static int          eventLogSize()   { return getIntParam("event_log"); }
 	public static int          packetSize()     { return getIntParam("flits_per_packet"); }
 	public static long         seed()           { return getLngParam("rand_seed"); }
 	public static int          samplePeriod()   { return getIntParam("sample_period"); }
@@ -552,6 +663,9 @@ public class Config {
 	public static double       burstBeta()      { return getDubParam("burst_beta"); }
 	public static long         permSeed()       { return getLngParam("perm_seed"); }
 	public static double       warmupThresh()   { return getDubParam("warmup_thresh"); }
+	public static boolean      warmupMser()     { return getBoolParam("warmup_mser"); }
+	public static double       precision()      { return getDubParam("precision"); }
+	public static int          maxSamples()     { return getIntParam("max_samples"); }
 	public static void         setInjRate(double rate) { setParam("injection_rate", rate); }
 	public static void         setInjStep(double step) { setParam("injection_step", step); }
 	public static int          numLayers()      { return getIntParam("num_layers"); }
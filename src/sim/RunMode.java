@@ -6,16 +6,26 @@
  */ 
 package sim;
 
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
 import sim.Simulator.SimState;
+import sim.stats.BatchMeans;
+import sim.stats.Metrics;
+import sim.stats.Mser;
 import sim.stats.Stats;
 
 public class RunMode {
 	
 	private static final boolean VERBOSE_EXPERIMENT = true;
 	private static final boolean VERBOSE_SIM_RUN = true;
+	private static final int KNEE_RUNS = 4;
 	
 	private static int m_runSampleCount;
 	private static int m_warmSampleCount;
+	private static Mser m_mser = new Mser();
+	private static TreeMap<Double, byte[]> m_warmStates = new TreeMap<Double, byte[]>();
 	private static boolean terminate_simulation = false;
 	
 	private RunMode() {}
@@ -48,11 +58,25 @@ public class RunMode {
         Config.setRouting(Config.routing());
         Simulator.getNetwork().initRouting();
         Stats.init();
-        //simIncreasingInj(VERBOSE_EXPERIMENT);
+        Metrics.open(Config.RESULTS_DIR+"/metrics"+Config.date());
         
-        Stats.newSimRun(0, Config.injectionRate());
-        singleRun(VERBOSE_EXPERIMENT, 0);
-		vPrintLn(true, Stats.dumpInfo());
+        if(Config.sweep().equals("linear")) {
+            simIncreasingInj(VERBOSE_EXPERIMENT);
+            vPrintLn(true, Stats.dumpCurve());
+        } else if(Config.sweep().equals("adaptive")) {
+            simAdaptiveInj(VERBOSE_EXPERIMENT);
+            vPrintLn(true, Stats.dumpCurve());
+        } else {
+            if(Config.sweep().length() > 0)
+                System.err.println("Error: unknown sweep "+Config.sweep()+", use linear or adaptive");
+            Stats.newSimRun(0, Config.injectionRate());
+            singleRun(VERBOSE_EXPERIMENT, 0);
+            vPrintLn(true, Stats.dumpInfo());
+        }
+		Metrics.close();
+		
+		if(Config.eventLogSize() > 0)
+			Simulator.getNetwork().writeEventLogs(Config.RESULTS_DIR+"/events"+Config.date()+".bin");
         
         Stats.endExperiment();
 	}
@@ -65,17 +89,74 @@ public class RunMode {
 		double injStep = Config.injectionStep();
 		
 		int runCount = 0;
+		m_warmStates.clear();
 		while(true) {
 			double injRate = injStep * (runCount+1);
 			Config.setInjRate(injRate);
 			vPrintLn(v, "Starting simulation run "+runCount+", injection rate = "+injRate+".\n");
 			Stats.newSimRun(runCount, injRate);
-			if(singleRun(VERBOSE_SIM_RUN, runCount))
+			if(singleRun(VERBOSE_SIM_RUN, runCount)) {
+				Stats.discardSimRun();
 				break;
+			}
 			vPrintLn(v, Stats.dumpInfo());
 			runCount++;
 		}
 	}
+	
+	/*
+	 * Find the same curve as simIncreasingInj with fewer runs, planned by
+	 * AdaptiveSweep. Whether a run saturated is decided from its result: its
+	 * latency is over the threshold, or its accepted throughput rose by less
+	 * than half the offered load since the closest lower rate that did not
+	 * saturate. Saturated runs are left off the curve, as are runs above a
+	 * lower one found to saturate later
+	 */
+	public static void simAdaptiveInj(final boolean v) {
+		
+		final double injStep = Config.injectionStep();
+		final TreeMap<Integer, Double> accepted = new TreeMap<Integer, Double>();
+		int maxStep = (int) Math.floor(1.0 / injStep + 1e-9);
+		AdaptiveSweep sweep = new AdaptiveSweep(maxStep, KNEE_RUNS);
+		m_warmStates.clear();
+		
+		sweep.run(new AdaptiveSweep.Runner() {
+			private int m_runCount = 0;
+			
+			public boolean run(int step) {
+				double injRate = injStep * step;
+				Config.setInjRate(injRate);
+				vPrintLn(v, "Starting simulation run "+m_runCount+", injection rate = "+injRate+".\n");
+				Stats.newSimRun(m_runCount, injRate);
+				if(singleRun(VERBOSE_SIM_RUN, m_runCount++)) {
+					Stats.discardSimRun();
+					return true;
+				}
+				vPrintLn(v, Stats.dumpInfo());
+				if(Config.latencyThresh() > 0 && Stats.runLatency() > Config.latencyThresh()) {
+					Stats.discardSimRun();
+					return true;
+				}
+				Map.Entry<Integer, Double> lower = accepted.lowerEntry(step);
+				double rise = Stats.runAccepted() - (lower == null ? 0 : lower.getValue());
+				if(rise < 0.5 * injStep * (step - (lower == null ? 0 : lower.getKey()))) {
+					Stats.discardSimRun();
+					return true;
+				}
+				accepted.put(step, Stats.runAccepted());
+				return false;
+			}
+			
+			public double latency() { return Stats.runLatency(); }
+		});
+		
+		// Runs above a knee run that saturated were kept when they were made
+		if(sweep.hi() <= maxStep)
+			Stats.discardSimRunsFrom(injStep * (sweep.hi() - 0.5));
+		vPrintLn(v, "Saturation between injection rates "+injStep*sweep.lo()+
+				" and "+(sweep.hi() > maxStep ? "-" : Double.toString(injStep*sweep.hi()))+
+				" after "+sweep.steps().size()+" runs");
+	}
 
 	/*
 	 * Run a single simulation
@@ -84,14 +165,40 @@ public class RunMode {
 		
 		m_runSampleCount = 0;
 		m_warmSampleCount = 0;
+		m_mser.clear();
 		boolean converged = false;
 		Simulator.reset();
 		
+		// Start from the steady state of the closest lower rate of a sweep, 
+		// or from a checkpoint, preferring the one of this rate in a sweep. 
+		// Only a checkpoint taken at this rate is already warm
+		Map.Entry<Double, byte[]> warm = m_warmStates.floorEntry(Config.injectionRate());
+		if(warm != null) {
+			if(Simulator.restore(warm.getValue()))
+				vPrintLn(v, "Starting from injection rate "+warm.getKey()+" at "+Simulator.clock()+" cycles");
+			else
+				Simulator.reset();
+		} else if(Config.restore().length() > 0) {
+			String file = checkpointFile(Config.restore());
+			if(!new File(file).exists())
+				file = Config.restore();
+			if(!Simulator.restore(file)) {
+				Simulator.reset();
+			} else if(Math.abs(Simulator.restoredRate() - Config.injectionRate()) < 1e-9) {
+				vPrintLn(v, "Restored "+file+" at "+Simulator.clock()+" cycles");
+				startSampling(v);
+			} else {
+				vPrintLn(v, "Restored "+file+" at "+Simulator.clock()+" cycles, taken at "+
+						"injection rate "+Simulator.restoredRate()+", warming up");
+			}
+		}
+		
 		//Simulator.setState(SimState.RUNNING);
-		while((m_runSampleCount < Config.numSamples() || Config.runForever()) && !terminate_simulation) {
+		while(!sampled() && !terminate_simulation) {
 			
 			// Clear the recorded stats if necessary
 			Stats.newSamplePhase();
+			Metrics.clear();
 			
 			// Execute simulation steps for the sample interval
 			for (int i = 0; i<Config.samplePeriod(); i++)
@@ -100,10 +207,13 @@ public class RunMode {
 			// Calculate the latency and throughput values
 			Stats.calcSampleValues();
 			
-			// Check the latency
-			if(Config.latencyThresh() > 0 && Stats.currLatency() > Config.latencyThresh()) {
+			// Check the latency, of every flit while warming up by MSER, which
+			// may otherwise never end past saturation
+			double latency = Config.warmupMser() && Simulator.getState() == SimState.WARMING_UP ? 
+					Stats.warmupLatency() : Stats.currLatency();
+			if(Config.latencyThresh() > 0 && latency > Config.latencyThresh()) {
 				vPrintLn(v, String.format("\nAverage latency is getting huge %.2f, "+
-						"terminating simulation", Stats.currLatency()));
+						"terminating simulation", latency));
 				Simulator.setState(SimState.WARMING_UP);
 				m_runSampleCount = m_warmSampleCount = 0;
 				converged = true;
@@ -117,7 +227,13 @@ public class RunMode {
 				if(Config.warmupPeriod() == 0) {
 					switch(Config.mode()) {
 					case RUN:
-						if(Stats.latencyChange() < Config.warmupThresh())
+						if(Config.warmupMser()) {
+							// No packets are measured before sampling, so look
+							// at the latency of every flit
+							m_mser.add(Stats.warmupLatency());
+							if(m_mser.truncation() >= 0)
+								warmedUp(v);
+						} else if(Stats.latencyChange() < Config.warmupThresh())
 							warmedUp(v);
 						break;
 					/*case THROUGHPUT:
@@ -128,23 +244,40 @@ public class RunMode {
 				} else if(m_warmSampleCount*Config.samplePeriod() >= Config.warmupPeriod()) {
 					vPrintLn(v, "Warmed up after "+Simulator.clock()+" cycles");
 					Simulator.setState(SimState.RUNNING);
+					if(Config.checkpoint().length() > 0)
+						Simulator.writeCheckpoint(checkpointFile(Config.checkpoint()));
 				}
 				m_warmSampleCount++;
 				break;
 			
 			case RUNNING:				
-				vPrint(v, String.format("\r%-12s%-12s%-12s%-12s%-12s%-12s", 
+				vPrint(v, String.format("\r%-12s%-12s%-12s%-12s%-12s%-12s%-12s", 
 						m_runSampleCount, Stats.packetsGenerated(), Stats.packetsReceived(),
 						(Stats.packetsGenerated()-Stats.packetsReceived()), 
 						String.format("%.2f", Stats.currLatency()),
+						Stats.currLatencyP99(),
 						String.format("%.2f", Stats.currThroughput())));
 
 				Stats.addSample();
+				Metrics.writeSample(m_runSampleCount);
 				m_runSampleCount++;
 				break;
 			}
 		}
 		
+		if(Config.precision() > 0 && !converged) {
+			BatchMeans b = Stats.batchLatency();
+			vPrint(v, String.format("\nLatency %.2f +/- %.2f after %d samples", 
+					b.mean(), b.halfWidth(), m_runSampleCount));
+		}
+		
+		// Keep the steady state for the next runs of a sweep
+		if(Config.warmStart() && !converged) {
+			byte[] state = Simulator.checkpoint();
+			if(state != null)
+				m_warmStates.put(Config.injectionRate(), state);
+		}
+		
 		// Drain any remaining packets
 		vPrintLn(v, "\nFinished sampling, draining packets...");
 		Simulator.setState(SimState.DRAINING);
@@ -169,15 +302,58 @@ public class RunMode {
 		
 		// Done
 		vPrintLn(v, "\nDone in "+drainCycles+" cycles");
+		int partial = Simulator.getNetwork().partialPackets();
+		if(partial > 0)
+			System.err.println("Warning: "+partial+" packets left part way through reassembly");
 		Stats.endSimRun();
 		Simulator.setState(SimState.DONE);
 		return converged;
 	}
 	
+	/*
+	 * Whether to stop sampling: after num_samples, unless running forever.
+	 * With a relative precision set, num_samples is the least number and
+	 * sampling goes on until the 95% confidence intervals of the latency and
+	 * throughput are within that fraction of their means, or max_samples if
+	 * it is set. This ends a run forever too
+	 */
+	private static boolean sampled() {
+		if(m_runSampleCount < Config.numSamples())
+			return false;
+		if(Config.precision() <= 0)
+			return !Config.runForever();
+		if(Config.maxSamples() > 0 && m_runSampleCount >= Config.maxSamples())
+			return true;
+		return precise(Stats.batchLatency()) && precise(Stats.batchAccepted());
+	}
+	
+	private static boolean precise(BatchMeans b) {
+		return b.halfWidth() <= Config.precision() * Math.abs(b.mean());
+	}
+	
+	/*
+	 * Start sampling once warmed up, checkpointing the warm state if asked to
+	 */
 	private static void warmedUp(boolean v) {
 		vPrintLn(v, "Warmed up after "+Simulator.clock()+" cycles");
-		vPrintLn(v, String.format("%-12s%-12s%-12s%-12s%-12s%-12s", 
-				"Sample", "Generated", "Received", "Flying", "Latency", "Throughput"));
+		startSampling(v);
+		if(Config.checkpoint().length() > 0)
+			Simulator.writeCheckpoint(checkpointFile(Config.checkpoint()));
+	}
+	
+	/*
+	 * The checkpoint file of a run: in a sweep each injection rate has its 
+	 * own, suffixed with the rate
+	 */
+	private static String checkpointFile(String filename) {
+		if(Config.sweep().length() == 0)
+			return filename;
+		return String.format("%s.%.4f", filename, Config.injectionRate());
+	}
+	
+	private static void startSampling(boolean v) {
+		vPrintLn(v, String.format("%-12s%-12s%-12s%-12s%-12s%-12s%-12s", 
+				"Sample", "Generated", "Received", "Flying", "Latency", "P99", "Throughput"));
 		Simulator.setState(SimState.RUNNING);
 	}
 
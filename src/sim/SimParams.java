@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim;
+
+import sim.Config.InjProcess;
+import sim.Config.Mode;
+import sim.Config.TrafficType;
+
+/*
+ * An immutable snapshot of the parameters read every cycle. Config builds one
+ * once the parameters are set and again whenever one of them changes, so the
+ * simulation reads final fields rather than looking up the parameter map
+ */
+public final class SimParams {
+
+	public final boolean     debugMode;
+	public final boolean     runMode;
+	public final TrafficType traffic;
+	public final boolean     traceTraffic;
+	public final boolean     mapReduceTraffic;
+	public final InjProcess  injection;
+	public final double      injectionRate;
+	public final double      burstAlpha;
+	public final double      burstBeta;
+	public final int         packetSize;
+	public final int         bufferSize;
+	public final int         numVCs;
+	public final int         availableVCs;
+	public final int         maxMsgs;
+	public final int         k;
+	public final int         n;
+
+	SimParams() {
+		debugMode        = Config.mode() == Mode.DEBUG;
+		runMode          = Config.mode() == Mode.RUN;
+		traffic          = Config.traffic();
+		traceTraffic     = traffic == TrafficType.TRACE;
+		mapReduceTraffic = traffic == TrafficType.MAPREDUCE;
+		injection        = Config.injection();
+		injectionRate    = Config.injectionRate();
+		burstAlpha       = Config.burstAlpha();
+		burstBeta        = Config.burstBeta();
+		packetSize       = Config.packetSize();
+		bufferSize       = Config.bufferSize();
+		numVCs           = Config.numVCs();
+		availableVCs     = Config.availableVCs();
+		maxMsgs          = Config.maxMsgs();
+		k                = Config.k();
+		n                = Config.n();
+	}
+}
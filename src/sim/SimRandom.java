@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ *
+ * Made available under the BSD license - see the LICENSE file
+ */
+package sim;
+
+import java.util.Random;
+
+/*
+ * A random number generator with the same 48-bit linear congruential
+ * generator as Random, so a seed gives the same numbers, but whose state can
+ * be read and set, to checkpoint it as plain data. The spare value kept by
+ * nextGaussian is not part of the state
+ */
+public class SimRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND     = 0xBL;
+	private static final long MASK       = (1L << 48) - 1;
+
+	private long m_state;
+
+	public SimRandom(long seed) {
+		super(seed);
+	}
+
+	public static SimRandom fromState(long state) {
+		SimRandom rand = new SimRandom(0);
+		rand.m_state = state & MASK;
+		return rand;
+	}
+
+	public synchronized void setSeed(long seed) {
+		super.setSeed(seed);
+		m_state = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	protected int next(int bits) {
+		m_state = (m_state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (m_state >>> (48 - bits));
+	}
+
+	public long getState() { return m_state; }
+}
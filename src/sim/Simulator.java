@@ -6,7 +6,16 @@
  */ 
 package sim;
 
-import java.util.Random;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import sim.components.Network;
 import sim.stats.Stats;
@@ -22,10 +31,13 @@ public class Simulator {
 		DONE
 	};
 	
+	private static final int CHECKPOINT_MAGIC = 0x53434b32;
+	
 	private static SimState  m_state;
-	private static Random    m_rand;
+	private static SimRandom m_rand;
 	private static Network   m_network;
 	private static int       m_cycleCount;
+	private static double    m_restoredRate;
 
 	private Simulator() {}
 	
@@ -35,7 +47,7 @@ public class Simulator {
 	 */
 	public static void init() {
 		m_state   = SimState.WARMING_UP;
-		m_rand    = new Random(Config.seed());
+		m_rand    = new SimRandom(Config.seed());
 		m_network = new Network();
 		Stats.init();
 	}
@@ -56,6 +68,95 @@ public class Simulator {
 		m_state  = SimState.WARMING_UP;
 	}
 	
+	/*
+	 * Save the state of the simulation: the clock, the injection rate, the 
+	 * random number generators, the injection processes, the number of packets in flight
+	 * and the network. It is deflated, as most of it is small integers. 
+	 * MapReduce jobs are not saved, so their traffic cannot be checkpointed
+	 */
+	public static byte[] checkpoint() {
+		if(Config.params().mapReduceTraffic) {
+			System.err.println("Error: cannot checkpoint MapReduce traffic");
+			return null;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(m_cycleCount);
+			out.writeDouble(Config.injectionRate());
+			out.writeLong(Config.seed());
+			Utilities.writeRandom(out, m_rand);
+			out.writeInt(Stats.packetsGenerated() - Stats.packetsReceived());
+			Injection.write(out);
+			m_network.write(out);
+			out.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			System.err.println("Error: could not checkpoint: "+e.getMessage());
+			return null;
+		}
+	}
+	
+	/*
+	 * Restore a checkpoint into the network, which must have been built from
+	 * the same configuration. The simulation carries on exactly as it would 
+	 * have from the checkpoint unless the random seed differs from the one it
+	 * was taken with, in which case the random number generators are seeded 
+	 * afresh, so runs with different seeds fork from the same state. The 
+	 * injection rate it was taken at is kept in restoredRate. Returns false 
+	 * if it could not be read, leaving the network to be reset
+	 */
+	public static boolean restore(byte[] checkpoint) {
+		try {
+			DataInputStream in = new DataInputStream(new InflaterInputStream(
+					new ByteArrayInputStream(checkpoint)));
+			if(in.readInt() != CHECKPOINT_MAGIC)
+				throw new IOException("not a checkpoint");
+			int clock = in.readInt();
+			double rate = in.readDouble();
+			boolean sameSeed = in.readLong() == Config.seed();
+			SimRandom rand = Utilities.readRandom(in);
+			int inFlight = in.readInt();
+			Injection.read(in);
+			m_network.read(in, sameSeed);
+			m_cycleCount = clock;
+			m_restoredRate = rate;
+			m_rand = sameSeed ? rand : new SimRandom(Config.seed());
+			Stats.addPacketsInFlight(inFlight);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Error: could not restore checkpoint: "+e.getMessage());
+			return false;
+		}
+	}
+	
+	public static void writeCheckpoint(String filename) {
+		byte[] checkpoint = checkpoint();
+		if(checkpoint == null)
+			return;
+		try {
+			FileOutputStream out = new FileOutputStream(filename);
+			out.write(checkpoint);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Error: could not write checkpoint "+filename);
+		}
+	}
+	
+	public static boolean restore(String filename) {
+		byte[] checkpoint = new byte[(int) new File(filename).length()];
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(filename));
+			in.readFully(checkpoint);
+			in.close();
+		} catch (IOException e) {
+			System.err.println("Error: could not read checkpoint "+filename);
+			return false;
+		}
+		return restore(checkpoint);
+	}
+	
 	public String dumpStats() {
 		String s = "";
 		return s;
@@ -63,6 +164,7 @@ public class Simulator {
 	
 	public static boolean  running()                { return m_state.equals(SimState.RUNNING); }
 	public static long     clock()                  { return m_cycleCount; }
+	public static double   restoredRate()           { return m_restoredRate; }
 	public static int      numNodes()               { return m_network.numNodes(); }
 	public static int      getRandInt()             { return m_rand.nextInt(); }
 	public static int      getRandInt(int n)        { return m_rand.nextInt(n); }
@@ -7,6 +7,8 @@
 package sim;
 
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -97,6 +99,17 @@ public class Utilities {
 		}
 	}
 	
+	/*
+	 * Write the state of a random number generator
+	 */
+	public static void writeRandom(DataOutputStream out, SimRandom rand) throws IOException {
+		out.writeLong(rand.getState());
+	}
+	
+	public static SimRandom readRandom(DataInputStream in) throws IOException {
+		return SimRandom.fromState(in.readLong());
+	}
+	
 	public static void writeFile(String filename, String contents) {
 	   try {
 	        BufferedWriter out = new BufferedWriter(new FileWriter(filename));
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * The set of components that have work to do. Members are identified by a
+ * dense index and held in a bit set, so they are visited in ascending index
+ * order and a word of 64 quiet components is skipped with a single test.
+ *
+ * Components are woken from whichever thread writes a signal to them, so bits
+ * are set and cleared atomically
+ */
+public class ActiveSet {
+
+	private AtomicLongArray m_words;
+
+	public ActiveSet(int capacity) {
+		m_words = new AtomicLongArray((capacity + 63) >>> 6);
+	}
+
+	/*
+	 * Return the first awake member at or after index, or -1 if there is none
+	 */
+	public int next(int index) {
+		int word = index >>> 6;
+		if(word >= m_words.length())
+			return -1;
+		long bits = m_words.get(word) & (-1L << index);
+		while(bits == 0) {
+			if(++word == m_words.length())
+				return -1;
+			bits = m_words.get(word);
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	public void wake(int index) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+		long bits = m_words.get(word);
+		while((bits & bit) == 0 && !m_words.compareAndSet(word, bits, bits | bit))
+			bits = m_words.get(word);
+	}
+
+	public void sleep(int index) {
+		int word = index >>> 6;
+		long bit = 1L << index;
+		long bits = m_words.get(word);
+		while((bits & bit) != 0 && !m_words.compareAndSet(word, bits, bits & ~bit))
+			bits = m_words.get(word);
+	}
+
+	public void clear() {
+		for(int i=0; i<m_words.length(); i++)
+			m_words.set(i, 0L);
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		for(int i=0; i<m_words.length(); i++)
+			out.writeLong(m_words.get(i));
+	}
+
+	void read(DataInputStream in) throws IOException {
+		for(int i=0; i<m_words.length(); i++)
+			m_words.set(i, in.readLong());
+	}
+
+	public boolean isAwake(int index) { return (m_words.get(index >>> 6) & (1L << index)) != 0; }
+}
@@ -6,44 +6,46 @@
  */ 
 package sim.components;
 
-import java.util.LinkedList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 public class Buffer {
 
-	private Console          m_console;
-	private LinkedList<Flit> m_buffer;
-	private int              m_capacity;
+	private EventLog  m_log;
+	private FlitQueue m_buffer;
+	private int       m_capacity;
 	
 	public Buffer(int capacity, Console console) {
-		m_console  = console;
+		m_log      = console.getLog();
 		m_capacity = capacity;
-		m_buffer   = new LinkedList<Flit>();
+		m_buffer   = new FlitQueue(capacity, false);
 	}
 
-	public boolean offerFlit(Flit flit) {
+	public boolean offerFlit(int flit) {
 		if(m_buffer.size() < m_capacity) {
-			m_buffer.addLast(flit);
+			m_buffer.offer(flit);
 			return true;
 		}
 		System.err.println("Buffer could not accept flit");
-		console("Buffer could not accept flit");
+		if(m_log != null)
+			m_log.record(EventLog.BUFFER_FULL);
 		return false;
 	}
 
 	public String toString() {
-		String s = "";
-		for(Flit f : m_buffer)
-			s += f+" ";
-		return s;
+		return m_buffer.toString();
 	}
 	
+	void write(DataOutputStream out) throws IOException { m_buffer.write(out); }
+	void read(DataInputStream in) throws IOException    { m_buffer.read(in); }
+	
 	public boolean hasFlits()                 { return !m_buffer.isEmpty(); }
 	public boolean isFull()                   { return m_buffer.size() >= m_capacity; }
-	public Flit    peekFlit()                 { return m_buffer.peek(); }
-	public Flit    takeFlit()                 { return m_buffer.poll(); }
+	public int     peekFlit()                 { return m_buffer.peek(); }
+	public int     takeFlit()                 { return m_buffer.poll(); }
 	public int     freeSlots()                { return m_capacity - m_buffer.size(); }
 	public int     usedSlots()                { return m_buffer.size(); }
 	public void    clear()                    { m_buffer.clear(); }
-	public void    replaceHeadFlit(Flit flit) { m_buffer.add(0, flit); }
-	public void    console(String text)       { m_console.console(text); }
+	public void    replaceHeadFlit(int flit)  { m_buffer.pushFront(flit); }
 }
@@ -17,16 +17,30 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 
 import sim.Config;
-import sim.Simulator;
 
+/*
+ * A component with a debug console. Events are recorded in the component's
+ * event log, which exists only in debug mode or when the event_log parameter
+ * gives a log size, and are rendered into the console as the state is shown
+ */
 public abstract class Console {
 
+	private static final int DEBUG_LOG_SIZE = 1024;
+	
 	private JTextArea    m_state;
 	private JTextArea    m_console;
 	private JPanel       m_panel;
 	private boolean      m_scroll;
+	private EventLog     m_log;
+	private long         m_rendered;
 	
 	public Console() {
+		int logSize = Config.eventLogSize();
+		if(Config.debugMode() && logSize == 0)
+			logSize = DEBUG_LOG_SIZE;
+		m_log = logSize > 0 ? new EventLog(logSize) : null;
+		m_rendered = 0;
+		
 		if(Config.debugMode()) {
 			m_scroll = false;
 			
@@ -60,24 +74,25 @@ public abstract class Console {
 	}
 	
 	public void updateStateConsole() {
-		if(Config.debugMode()) {
+		if(Config.params().debugMode) {
 			m_state.setText(toString());
 			if(!m_scroll)
 				m_state.select(0, 0);
-		}
-	}
-	
-	/*
-	 * This caused so much hassle, appending to the console is very expensive!
-	 */
-	public void console(String text) {
-		if(Config.debugMode()) {
-			m_console.append("["+Simulator.clock()+"]\t"+text+"\n");
-			m_console.setCaretPosition(m_console.getText().trim().length());
+			
+			// This caused so much hassle, appending to the console is very expensive!
+			if(m_log.count() > m_rendered) {
+				m_console.append(m_log.render(m_rendered));
+				m_console.setCaretPosition(m_console.getText().trim().length());
+				m_rendered = m_log.count();
+			}
 		}
 	}
 	
 	public void resetConsoles() { 
+		if(m_log != null) {
+			m_log.clear();
+			m_rendered = 0;
+		}
 		if(Config.debugMode()) {
 			m_console.setText("");
 		}
@@ -85,5 +100,6 @@ public abstract class Console {
 
 	public abstract String getTitle();
 
-	public JPanel getConsole()              { return m_panel; }
+	public JPanel   getConsole()            { return m_panel; }
+	public EventLog getLog()                { return m_log; }
 }
@@ -8,14 +8,18 @@ package sim.components;
 
 /*
  * A class to represent a credit signal, this is transmitted 
- * back up a link in a credit loop to inform of a new fre buffer space
+ * back up a link in a credit loop to inform of a new fre buffer space.
+ * 
+ * Links and ports carry credits as the index of the VC they are for, with 
+ * NONE for no credit, so objects of this class are only made for display
  */
-public class Credit extends Signal {
+public class Credit {
+	
+	public static final int NONE = -1;
 
 	private int m_vc;
 	
 	public Credit(int vc) {
-		super();
 		m_vc = vc;
 	}
 	
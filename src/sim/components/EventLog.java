@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import sim.Simulator;
+
+/*
+ * A component's log of recent events, held as an event code and a few int
+ * arguments in a preallocated ring, so recording an event builds no strings
+ * and allocates nothing. Components only hold a log when logging is on, and
+ * test for it before recording, so a run without logging pays a single
+ * branch per event. Events are rendered as text on demand: by the debug
+ * consoles, or offline from a file written with write()
+ */
+public final class EventLog {
+
+	public static final int  ARGS          = 6;
+
+	// Event codes and their arguments
+	public static final byte FLIT_RECEIVED = 0; // msg, flit
+	public static final byte PROC_OPEN     = 1; // msg, flit
+	public static final byte ROUTER_OPEN   = 2; // msg, flit, in port, in VC, out port, out VC
+	public static final byte NO_VC         = 3; // in port, in VC, out port
+	public static final byte FLIT_WRITTEN  = 4; // port, VC, msg, flit, link
+	public static final byte CLOSE_INPUT   = 5; // port, VC, stack depth, stack low, stack high
+	public static final byte CLOSE_OUTPUT  = 6; // port, VC
+	public static final byte VC_NOT_EMPTY  = 7; // port, VC, msg, flit, held msg, held flit
+	public static final byte BUFFER_FULL   = 8;
+
+	private long[] m_clock;
+	private byte[] m_code;
+	private int[]  m_args;
+	private int    m_mask;
+	private long   m_count;
+
+	public EventLog(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 1));
+		if(size < capacity)
+			size <<= 1;
+		m_clock = new long[size];
+		m_code  = new byte[size];
+		m_args  = new int[size * ARGS];
+		m_mask  = size - 1;
+		m_count = 0;
+	}
+
+	public void record(byte code, int a0, int a1, int a2, int a3, int a4, int a5) {
+		int i = (int) m_count & m_mask;
+		int j = i * ARGS;
+		m_clock[i]  = Simulator.clock();
+		m_code[i]   = code;
+		m_args[j]   = a0;
+		m_args[j+1] = a1;
+		m_args[j+2] = a2;
+		m_args[j+3] = a3;
+		m_args[j+4] = a4;
+		m_args[j+5] = a5;
+		m_count++;
+	}
+
+	public void record(byte code, int a0, int a1, int a2) { record(code, a0, a1, a2, 0, 0, 0); }
+	public void record(byte code, int a0, int a1)         { record(code, a0, a1, 0, 0, 0, 0); }
+	public void record(byte code)                         { record(code, 0, 0, 0, 0, 0, 0); }
+
+	/*
+	 * Pack what is needed to print a flit, as flits are reused once retired:
+	 * the type in the top bits and the destination or sequence number below
+	 */
+	public static int flit(int f) {
+		int info = Flit.isHeader(f) ? Flit.getDest(f) : Flit.isBody(f) ? Flit.getSeqNum(f) : 0;
+		return (Flit.getType(f) << 28) | info;
+	}
+
+	private static String flitStr(int msg, int info) {
+		switch(info >>> 28) {
+		case Flit.HEADER: return "[H"+msg+":"+(info & 0x0FFFFFFF)+"]";
+		case Flit.BODY:   return "[B"+msg+"."+(info & 0x0FFFFFFF)+"]";
+		default:          return "[T"+msg+"]";
+		}
+	}
+
+	public static String toString(byte code, int[] a, int j) {
+		switch(code) {
+		case FLIT_RECEIVED: return "Received flit "+flitStr(a[j], a[j+1]);
+		case PROC_OPEN:     return flitStr(a[j], a[j+1])+" opening connection through O[0:0]";
+		case ROUTER_OPEN:   return flitStr(a[j], a[j+1])+" opening connection I["+a[j+2]+":"+a[j+3]+"] to O["+
+		                           a[j+4]+":"+a[j+5]+"] on dsn VC "+a[j+5];
+		case NO_VC:         return "could not allocate a VC for I["+a[j]+":"+a[j+1]+"] on O["+a[j+2]+":?]";
+		case FLIT_WRITTEN:  return "O["+a[j]+":"+a[j+1]+"] wrote flit "+flitStr(a[j+2], a[j+3])+" to link "+a[j+4];
+		case CLOSE_INPUT:   return "closing connection I["+a[j]+":"+a[j+1]+"] state: "+
+		                           VirtualChannel.stackStr((a[j+4] & 0xFFFFFFFFL) << 32 | (a[j+3] & 0xFFFFFFFFL), a[j+2]);
+		case CLOSE_OUTPUT:  return "closing connection O["+a[j]+":"+a[j+1]+"]";
+		case VC_NOT_EMPTY:  return flitStr(a[j+2], a[j+3])+": output VC O["+a[j]+":"+a[j+1]+"] not empty: contains "+
+		                           flitStr(a[j+4], a[j+5]);
+		case BUFFER_FULL:   return "Buffer could not accept flit";
+		default:            return "Unknown event "+code;
+		}
+	}
+
+	/*
+	 * Render the events recorded since the count from, or as many of them as
+	 * are still held, one per line
+	 */
+	public String render(long from) {
+		StringBuilder s = new StringBuilder();
+		for(long n=Math.max(from, m_count - m_clock.length); n<m_count; n++) {
+			int i = (int) n & m_mask;
+			s.append("[").append(m_clock[i]).append("]\t").append(toString(m_code[i], m_args, i * ARGS)).append("\n");
+		}
+		return s.toString();
+	}
+
+	/*
+	 * Write the held events, oldest first
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		long from = Math.max(0, m_count - m_clock.length);
+		out.writeInt((int) (m_count - from));
+		for(long n=from; n<m_count; n++) {
+			int i = (int) n & m_mask;
+			out.writeLong(m_clock[i]);
+			out.writeByte(m_code[i]);
+			for(int j=0; j<ARGS; j++)
+				out.writeInt(m_args[i * ARGS + j]);
+		}
+	}
+
+	public void clear() {
+		m_count = 0;
+	}
+
+	/*
+	 * Print an event log file, a sequence of titled component logs, as text
+	 */
+	public static void main(String[] args) {
+		if(args.length != 1) {
+			System.err.println("Usage: EventLog <events.bin>");
+			System.exit(1);
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+			int[] a = new int[ARGS];
+			try {
+				while(true) {
+					String title = in.readUTF();
+					int n = in.readInt();
+					System.out.println(title+":");
+					for(int e=0; e<n; e++) {
+						long clock = in.readLong();
+						byte code = in.readByte();
+						for(int j=0; j<ARGS; j++)
+							a[j] = in.readInt();
+						System.out.println("["+clock+"]\t"+toString(code, a, 0));
+					}
+					System.out.println();
+				}
+			} catch(EOFException e) {
+				in.close();
+			}
+		} catch(IOException e) {
+			System.err.println("Error: could not read event log "+args[0]);
+			System.exit(1);
+		}
+	}
+
+	public long count() { return m_count; }
+}
@@ -6,112 +6,274 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
 import sim.Simulator;
 import sim.mapreduce.Tag;
 
-public class Flit extends Signal {
-	
-	private int     m_msgId;
-	private int     m_sample;
-	private int     m_vc;
-	private long    m_injectionTime;
-	private long    m_received;
-	private int     m_hops;
-	
-	public Flit(int messageId, int sample) {
-		super();
-		m_msgId = messageId;
-		m_sample = sample;
-		m_vc = -1;
-		m_hops = 0;
-		m_injectionTime = Simulator.clock();
+/*
+ * Flits are held in an arena of parallel arrays and passed around as int
+ * handles, so once the arena has grown to the number of flits in flight a
+ * packet costs no allocation. Freed handles are kept on a free list.
+ *
+ * Handles are only allocated and freed by processors, which are always
+ * stepped from a single thread, and never while routers are being updated
+ * by other threads. The arrays are split into fixed size chunks so growing
+ * the arena never moves a flit
+ */
+public final class Flit {
+
+	public static final int  NONE   = -1;
+	public static final byte HEADER = 0;
+	public static final byte BODY   = 1;
+	public static final byte TAIL   = 2;
+
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Every flit
+	private static byte[][] m_type          = new byte[0][];
+	private static int[][]  m_msgId         = new int[0][];
+	private static int[][]  m_sample        = new int[0][];
+	private static int[][]  m_vc            = new int[0][];
+	private static int[][]  m_hops          = new int[0][];
+	private static long[][] m_injectionTime = new long[0][];
+	private static long[][] m_received      = new long[0][];
+
+	// Header flits
+	private static int[][]  m_src           = new int[0][];
+	private static int[][]  m_dest          = new int[0][];
+	private static int[][]  m_length        = new int[0][];
+	private static int[][]  m_job           = new int[0][];
+	private static Tag[][]  m_tag           = new Tag[0][];
+
+	// Body flits
+	private static int[][]  m_seqNum        = new int[0][];
+	private static int[][]  m_data          = new int[0][];
+
+	// Free list
+	private static int[][]  m_next          = new int[0][];
+	private static int      m_free          = NONE;
+	private static int      m_numAllocated  = 0;
+
+	private Flit() {}
+
+	public static int newHeader(int messageId, int sample, int src, int dest, int length) {
+		return newHeader(messageId, sample, src, dest, length, -1, null);
 	}
-	
-	public int     getMsgId()              { return m_msgId; }
-	public boolean isMmt()                 { return m_sample!=-1; }
-	public int     sampleNum()             { return m_sample; }
-	public int     setVC(int vc)           { return m_vc = vc; }
-	public int     getVC()                 { return m_vc; }
-	public long    getInjTime()            { return m_injectionTime; }
-	public void    incHops()               { m_hops++; }
-	public int     getNumHops()            { return m_hops; }
-	public long    getTimeReceived()       { return m_received; }
-	public void    setTimeReceived(long t) {  m_received = t; }
-	public long    getLatency()            { return m_received - m_injectionTime; }
-	public int     getHops()               { return m_hops; }
-}
 
-class HeaderFlit extends Flit {
-	
-	private int m_src;
-	private int m_dest;
-	private int m_length;
-	private int m_job;
-	private Tag m_tag;
-	
-	//LinkedList<Integer> m_sources;
-	
-	public HeaderFlit(int messageId, int sample, int src, int dest, int length) {
-		super(messageId, sample);
-		m_src = src;
-		m_dest = dest;
-		m_length = length;
+	public static int newHeader(int messageId, int sample, int src, int dest, int length, int job, Tag tag) {
+		int f = alloc(HEADER, messageId, sample);
+		m_src[f >>> CHUNK_BITS][f & CHUNK_MASK] = src;
+		m_dest[f >>> CHUNK_BITS][f & CHUNK_MASK] = dest;
+		m_length[f >>> CHUNK_BITS][f & CHUNK_MASK] = length;
+		m_job[f >>> CHUNK_BITS][f & CHUNK_MASK] = job;
+		m_tag[f >>> CHUNK_BITS][f & CHUNK_MASK] = tag;
+		return f;
 	}
-	
-	public HeaderFlit(int messageId, int sample, int src, int dest, int length, int job, Tag tag) {
-		super(messageId, sample);
-		m_src = src;
-		m_dest = dest;
-		m_length = length;
-		m_job = job;
-		m_tag = tag;
+
+	public static int newBody(int messageId, int sample, int seqNum) {
+		return newBody(messageId, sample, seqNum, 0);
 	}
-	
-	/*public HeaderFlit(int messageId, int sample, int src, LinkedList<Integer> sources, int dest, int length, int job, Tag tag) {
-		super(messageId, sample);
-		m_src = src;
-		m_dest = dest;
-		m_length = length;
-		m_job = job;
-		m_tag = tag;
-		m_sources = sources;
-	}*/
-	
-	public int    getSrc()    { return m_src; }
-	public int    getDest()   { return m_dest; }
-	public int    getLength() { return m_length; }
-	public String toString()  { return "[H"+getMsgId()+":"+m_dest+"]"; }
-	public int	  getJob()	  { return m_job; }
-	public Tag	  getTag()	  { return m_tag; }
-	
-	//public LinkedList<Integer> getSources() { return m_sources; }
-}
 
-class BodyFlit extends Flit {
+	public static int newBody(int messageId, int sample, int seqNum, int data) {
+		int f = alloc(BODY, messageId, sample);
+		m_seqNum[f >>> CHUNK_BITS][f & CHUNK_MASK] = seqNum;
+		m_data[f >>> CHUNK_BITS][f & CHUNK_MASK] = data;
+		return f;
+	}
 
-	private int	m_data;
-	int m_seqNum;
-	
-	public BodyFlit(int messageId, int sample, int seqNum, int data) {
-		super(messageId, sample);
-		m_seqNum = seqNum;
-		m_data = data;
+	public static int newTail(int messageId, int sample) {
+		return alloc(TAIL, messageId, sample);
 	}
-	
-	public BodyFlit(int messageId, int sample, int seqNum) {
-		super(messageId, sample);
-		m_seqNum = seqNum;
+
+	/*
+	 * Return a flit to the free list once it has been retired
+	 */
+	public static void free(int f) {
+		m_tag[f >>> CHUNK_BITS][f & CHUNK_MASK] = null;
+		m_next[f >>> CHUNK_BITS][f & CHUNK_MASK] = m_free;
+		m_free = f;
+		m_numAllocated--;
+	}
+
+	/*
+	 * Free every flit, called when the network is reset and holds no flits
+	 */
+	public static void reset() {
+		m_free = NONE;
+		m_numAllocated = 0;
+		for(int f=capacity()-1; f>=0; f--) {
+			m_tag[f >>> CHUNK_BITS][f & CHUNK_MASK] = null;
+			m_next[f >>> CHUNK_BITS][f & CHUNK_MASK] = m_free;
+			m_free = f;
+		}
 	}
-	
-	public String toString() { return "[B"+getMsgId()+"."+m_seqNum+"]"; }
-	public int getData()  { return m_data; }
-}
 
-class TailFlit extends Flit {
+	/*
+	 * Write every allocated flit with its handle, so the handles held by 
+	 * the network stay valid when read back. Reading frees every flit first,
+	 * grows the arena to the written capacity and rebuilds the free list from
+	 * the handles not read. Tags are not written
+	 */
+	static void write(DataOutputStream out) throws IOException {
+		boolean[] free = new boolean[capacity()];
+		for(int f=m_free; f!=NONE; f=m_next[f >>> CHUNK_BITS][f & CHUNK_MASK])
+			free[f] = true;
+		out.writeInt(capacity());
+		out.writeInt(m_numAllocated);
+		for(int f=0; f<free.length; f++) {
+			if(free[f])
+				continue;
+			int c = f >>> CHUNK_BITS;
+			int i = f & CHUNK_MASK;
+			out.writeInt(f);
+			out.writeByte(m_type[c][i]);
+			out.writeInt(m_msgId[c][i]);
+			out.writeInt(m_sample[c][i]);
+			out.writeInt(m_vc[c][i]);
+			out.writeInt(m_hops[c][i]);
+			out.writeLong(m_injectionTime[c][i]);
+			out.writeLong(m_received[c][i]);
+			if(m_type[c][i] == HEADER) {
+				out.writeInt(m_src[c][i]);
+				out.writeInt(m_dest[c][i]);
+				out.writeInt(m_length[c][i]);
+				out.writeInt(m_job[c][i]);
+			} else if(m_type[c][i] == BODY) {
+				out.writeInt(m_seqNum[c][i]);
+				out.writeInt(m_data[c][i]);
+			}
+		}
+	}
+
+	static void read(DataInputStream in) throws IOException {
+		int capacity = in.readInt();
+		while(capacity() < capacity)
+			grow();
+		boolean[] allocated = new boolean[capacity()];
+		m_numAllocated = in.readInt();
+		for(int n=0; n<m_numAllocated; n++) {
+			int f = in.readInt();
+			int c = f >>> CHUNK_BITS;
+			int i = f & CHUNK_MASK;
+			allocated[f] = true;
+			m_type[c][i] = in.readByte();
+			m_msgId[c][i] = in.readInt();
+			m_sample[c][i] = in.readInt();
+			m_vc[c][i] = in.readInt();
+			m_hops[c][i] = in.readInt();
+			m_injectionTime[c][i] = in.readLong();
+			m_received[c][i] = in.readLong();
+			m_tag[c][i] = null;
+			if(m_type[c][i] == HEADER) {
+				m_src[c][i] = in.readInt();
+				m_dest[c][i] = in.readInt();
+				m_length[c][i] = in.readInt();
+				m_job[c][i] = in.readInt();
+			} else if(m_type[c][i] == BODY) {
+				m_seqNum[c][i] = in.readInt();
+				m_data[c][i] = in.readInt();
+			}
+		}
+		m_free = NONE;
+		for(int f=capacity()-1; f>=0; f--) {
+			if(!allocated[f]) {
+				m_tag[f >>> CHUNK_BITS][f & CHUNK_MASK] = null;
+				m_next[f >>> CHUNK_BITS][f & CHUNK_MASK] = m_free;
+				m_free = f;
+			}
+		}
+	}
+
+	private static int alloc(byte type, int messageId, int sample) {
+		if(m_free == NONE)
+			grow();
+		int f = m_free;
+		int c = f >>> CHUNK_BITS;
+		int i = f & CHUNK_MASK;
+		m_free = m_next[c][i];
+		m_numAllocated++;
+		m_type[c][i] = type;
+		m_msgId[c][i] = messageId;
+		m_sample[c][i] = sample;
+		m_vc[c][i] = -1;
+		m_hops[c][i] = 0;
+		m_injectionTime[c][i] = Simulator.clock();
+		m_received[c][i] = 0;
+		return f;
+	}
+
+	/*
+	 * Add a chunk to the arena. Existing chunks are shared by the new outer
+	 * arrays so no flit moves
+	 */
+	private static void grow() {
+		int n = m_type.length;
+		m_type          = addChunk(m_type, new byte[CHUNK_SIZE]);
+		m_msgId         = addChunk(m_msgId, new int[CHUNK_SIZE]);
+		m_sample        = addChunk(m_sample, new int[CHUNK_SIZE]);
+		m_vc            = addChunk(m_vc, new int[CHUNK_SIZE]);
+		m_hops          = addChunk(m_hops, new int[CHUNK_SIZE]);
+		m_injectionTime = addChunk(m_injectionTime, new long[CHUNK_SIZE]);
+		m_received      = addChunk(m_received, new long[CHUNK_SIZE]);
+		m_src           = addChunk(m_src, new int[CHUNK_SIZE]);
+		m_dest          = addChunk(m_dest, new int[CHUNK_SIZE]);
+		m_length        = addChunk(m_length, new int[CHUNK_SIZE]);
+		m_job           = addChunk(m_job, new int[CHUNK_SIZE]);
+		m_tag           = addChunk(m_tag, new Tag[CHUNK_SIZE]);
+		m_seqNum        = addChunk(m_seqNum, new int[CHUNK_SIZE]);
+		m_data          = addChunk(m_data, new int[CHUNK_SIZE]);
+		m_next          = addChunk(m_next, new int[CHUNK_SIZE]);
+		for(int i=CHUNK_SIZE-1; i>=0; i--) {
+			m_next[n][i] = m_free;
+			m_free = (n << CHUNK_BITS) | i;
+		}
+	}
+
+	private static <T> T[] addChunk(T[] chunks, T chunk) {
+		T[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+		grown[chunks.length] = chunk;
+		return grown;
+	}
 
-	public TailFlit(int messageId, int sample) {
-		super(messageId, sample);
+	public static String toString(int f) {
+		if(f == NONE)
+			return "null";
+		switch(getType(f)) {
+		case HEADER: return "[H"+getMsgId(f)+":"+getDest(f)+"]";
+		case BODY:   return "[B"+getMsgId(f)+"."+getSeqNum(f)+"]";
+		default:     return "[T"+getMsgId(f)+"]";
+		}
 	}
 
-	public String toString() { return "[T"+getMsgId()+"]"; }
+	public static byte    getType(int f)                 { return m_type[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static boolean isHeader(int f)                { return getType(f) == HEADER; }
+	public static boolean isBody(int f)                  { return getType(f) == BODY; }
+	public static boolean isTail(int f)                  { return getType(f) == TAIL; }
+	public static int     getMsgId(int f)                { return m_msgId[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static boolean isMmt(int f)                   { return sampleNum(f) != -1; }
+	public static int     sampleNum(int f)               { return m_sample[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     setVC(int f, int vc)           { return m_vc[f >>> CHUNK_BITS][f & CHUNK_MASK] = vc; }
+	public static int     getVC(int f)                   { return m_vc[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static long    getInjTime(int f)              { return m_injectionTime[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static void    setInjTime(int f, long t)      { m_injectionTime[f >>> CHUNK_BITS][f & CHUNK_MASK] = t; }
+	public static void    incHops(int f)                 { m_hops[f >>> CHUNK_BITS][f & CHUNK_MASK]++; }
+	public static int     getHops(int f)                 { return m_hops[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static long    getTimeReceived(int f)         { return m_received[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static void    setTimeReceived(int f, long t) { m_received[f >>> CHUNK_BITS][f & CHUNK_MASK] = t; }
+	public static long    getLatency(int f)              { return getTimeReceived(f) - getInjTime(f); }
+	public static int     getSrc(int f)                  { return m_src[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     getDest(int f)                 { return m_dest[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     getLength(int f)               { return m_length[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     getJob(int f)                  { return m_job[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static Tag     getTag(int f)                  { return m_tag[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     getSeqNum(int f)               { return m_seqNum[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     getData(int f)                 { return m_data[f >>> CHUNK_BITS][f & CHUNK_MASK]; }
+	public static int     capacity()                     { return m_type.length << CHUNK_BITS; }
+	public static int     numAllocated()                 { return m_numAllocated; }
 }
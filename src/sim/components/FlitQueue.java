@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * A queue of flit handles held in a power-of-two array ring, so offer, poll,
+ * peek and push to the front are O(1) and nothing is allocated once the ring
+ * is big enough. A growable queue doubles its ring when it fills; a fixed
+ * queue refuses the offer
+ */
+public class FlitQueue {
+
+	private int[]   m_ring;
+	private int     m_mask;
+	private int     m_head;
+	private int     m_size;
+	private boolean m_growable;
+
+	public FlitQueue(int capacity, boolean growable) {
+		int size = Integer.highestOneBit(Math.max(capacity, 1));
+		if(size < capacity)
+			size <<= 1;
+		m_ring     = new int[size];
+		m_mask     = size - 1;
+		m_head     = 0;
+		m_size     = 0;
+		m_growable = growable;
+	}
+
+	/*
+	 * Add a flit to the back, returning false if the queue is full and fixed
+	 */
+	public boolean offer(int flit) {
+		if(m_size == m_ring.length) {
+			if(!m_growable)
+				return false;
+			grow();
+		}
+		m_ring[(m_head + m_size) & m_mask] = flit;
+		m_size++;
+		return true;
+	}
+
+	/*
+	 * Put a flit back at the front, returning false if the queue is full and fixed
+	 */
+	public boolean pushFront(int flit) {
+		if(m_size == m_ring.length) {
+			if(!m_growable)
+				return false;
+			grow();
+		}
+		m_head = (m_head - 1) & m_mask;
+		m_ring[m_head] = flit;
+		m_size++;
+		return true;
+	}
+
+	public int poll() {
+		if(m_size == 0)
+			return Flit.NONE;
+		int flit = m_ring[m_head];
+		m_head = (m_head + 1) & m_mask;
+		m_size--;
+		return flit;
+	}
+
+	/*
+	 * Remove the i-th flit from the front, closing the gap
+	 */
+	public int remove(int i) {
+		int flit = get(i);
+		for(; i<m_size-1; i++)
+			m_ring[(m_head + i) & m_mask] = m_ring[(m_head + i + 1) & m_mask];
+		m_size--;
+		return flit;
+	}
+
+	private void grow() {
+		int[] ring = new int[m_ring.length << 1];
+		for(int i=0; i<m_size; i++)
+			ring[i] = m_ring[(m_head + i) & m_mask];
+		m_ring = ring;
+		m_mask = ring.length - 1;
+		m_head = 0;
+	}
+
+	public void clear() {
+		m_head = 0;
+		m_size = 0;
+	}
+
+	/*
+	 * Write the flits front first, and read them back into an empty queue
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_size);
+		for(int i=0; i<m_size; i++)
+			out.writeInt(get(i));
+	}
+
+	void read(DataInputStream in) throws IOException {
+		clear();
+		int size = in.readInt();
+		for(int i=0; i<size; i++)
+			offer(in.readInt());
+	}
+
+	public String toString() {
+		String s = "";
+		for(int i=0; i<m_size; i++)
+			s += Flit.toString(get(i))+" ";
+		return s;
+	}
+
+	public int     peek()     { return m_size == 0 ? Flit.NONE : m_ring[m_head]; }
+	public int     get(int i) { return m_ring[(m_head + i) & m_mask]; }
+	public int     size()     { return m_size; }
+	public boolean isEmpty()  { return m_size == 0; }
+	public int     capacity() { return m_ring.length; }
+}
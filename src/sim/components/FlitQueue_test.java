@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.components;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FlitQueue_test {
+
+	@Test
+	public void testFifoOrder() {
+		FlitQueue q = new FlitQueue(4, false);
+		assertEquals(Flit.NONE, q.peek());
+		for(int i=0; i<4; i++)
+			assertTrue(q.offer(i));
+		assertFalse(q.offer(4));
+		for(int i=0; i<4; i++)
+			assertEquals(i, q.poll());
+		assertEquals(Flit.NONE, q.poll());
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void testCapacityRoundedToPowerOfTwo() {
+		assertEquals(8, new FlitQueue(5, false).capacity());
+		assertEquals(4, new FlitQueue(4, false).capacity());
+		assertEquals(1, new FlitQueue(0, false).capacity());
+	}
+
+	@Test
+	public void testWrapAndPushFront() {
+		FlitQueue q = new FlitQueue(4, false);
+		q.offer(1);
+		q.offer(2);
+		q.poll();
+		q.poll();
+		q.offer(3);
+		q.offer(4);
+		q.offer(5);
+		assertTrue(q.pushFront(2));
+		assertFalse(q.pushFront(1));
+		for(int i=2; i<=5; i++)
+			assertEquals(i, q.poll());
+	}
+
+	@Test
+	public void testGrowKeepsOrder() {
+		FlitQueue q = new FlitQueue(2, true);
+		q.offer(0);
+		q.poll();
+		for(int i=0; i<10; i++)
+			assertTrue(q.offer(i));
+		assertEquals(16, q.capacity());
+		for(int i=0; i<10; i++)
+			assertEquals(i, q.get(i));
+	}
+
+	@Test
+	public void testRemove() {
+		FlitQueue q = new FlitQueue(4, false);
+		for(int i=0; i<4; i++)
+			q.offer(i);
+		assertEquals(1, q.remove(1));
+		assertEquals(3, q.size());
+		assertEquals(0, q.poll());
+		assertEquals(2, q.poll());
+		assertEquals(3, q.poll());
+	}
+}
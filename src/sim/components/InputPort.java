@@ -6,31 +6,35 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import sim.Config;
 
 public class InputPort extends Port {
 
-	private Flit      m_inputFlit;
+	private int       m_inputFlit;
 	private InputVC[] m_vcs;
 	private boolean   m_sendCredit;
 	
 	public InputPort(Console console, int nodeId, int portNum, Link link, int numVCs) {
-		super(console, nodeId, portNum, link);
+		super(console, nodeId, portNum, link, numVCs);
 		m_vcs = new InputVC[numVCs];
 		for(int i=0; i<m_vcs.length; i++)
-			m_vcs[i] = new InputVC(portNum, i, console, Config.bufferSize());
+			m_vcs[i] = new InputVC(this, i, console, Config.bufferSize());
 		m_sendCredit = false;
-		m_inputFlit = null;
+		m_inputFlit = Flit.NONE;
 	}
 	
 	/*
 	 * Read an input flit and add it to a VC buffer
 	 */
 	public void readInputFlit() {
-		if(m_inputFlit != null) {
-			m_vcs[m_inputFlit.getVC()].addFlit(m_inputFlit);
+		if(m_inputFlit != Flit.NONE) {
+			m_vcs[Flit.getVC(m_inputFlit)].addFlit(m_inputFlit);
 			//console("I["+getPortNum()+":"+m_inputFlit.getVC()+"] received flit "+m_inputFlit.toShortStr());
-			m_inputFlit = null;
+			m_inputFlit = Flit.NONE;
 		}
 	}
 	
@@ -39,21 +43,15 @@ public class InputPort extends Port {
 	 * for a VC to be allocated, then take the flit so the router can try to allocate 
 	 * it one
 	 */
-	public Flit peekNextFlit() {
-		for(int j=1; j<m_vcs.length+1; j++) {
-			int index = (getCurrVC() + j) % m_vcs.length;
-			if((m_vcs[index].isActive() || m_vcs[index].isWaitingVC()) /*&& m_vcs[index].hasFlit()*/) {
-				if(m_vcs[index].peekFlit() != null) {
-					setCurrVC(index);
-					//System.out.println("Input set currVC = "+getCurrVC());
-					return m_vcs[index].peekFlit();
-				}
-			}
-		}
-		return null;
+	public int peekNextFlit() {
+		int index = nextVC((activeVCs() | waitingVCVCs()) & flitVCs(), m_vcs.length);
+		if(index == -1)
+			return Flit.NONE;
+		setCurrVC(index);
+		return m_vcs[index].peekFlit();
 	}
 	
-	public Flit takeNextFlit() {
+	public int takeNextFlit() {
 		m_sendCredit = true;
 		return m_vcs[getCurrVC()].takeFlit();
 	}
@@ -63,7 +61,7 @@ public class InputPort extends Port {
 	 */
 	public void writeOuputCredit() {
 		if(m_sendCredit) {
-			getLink().setInputCredit(new Credit(getCurrVC()));
+			getLink().setInputCredit(getCurrVC());
 			m_sendCredit = false;
 			//console("I["+getPortNum()+":"+getCurrVC()+"] sending a credit back");
 			//System.out.println("sending a credit back for VC "+getCurrVC());
@@ -89,10 +87,33 @@ public class InputPort extends Port {
 		for(InputVC vc : m_vcs)
 			vc.resetState();
 		m_sendCredit = false;
-		m_inputFlit = null;
+		m_inputFlit = Flit.NONE;
 		setCurrVC(0);
 	}
 	
+	void write(DataOutputStream out) throws IOException {
+		super.write(out);
+		out.writeInt(m_inputFlit);
+		out.writeBoolean(m_sendCredit);
+		for(InputVC vc : m_vcs)
+			vc.write(out);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		super.read(in);
+		m_inputFlit = in.readInt();
+		m_sendCredit = in.readBoolean();
+		for(InputVC vc : m_vcs)
+			vc.read(in);
+	}
+	
+	/*
+	 * A port is quiet when it holds no flits and has nothing to send or receive
+	 */
+	public boolean isQuiet() {
+		return m_inputFlit == Flit.NONE && !m_sendCredit && flitVCs() == 0;
+	}
+	
 	public String toString() {
 		String s = "";
 		for(int i=0; i<m_vcs.length; i++) {
@@ -106,7 +127,7 @@ public class InputPort extends Port {
 	public int  getUpstreamNode()                       { return getLink().getFromPort().getNodeId(); }
 	public int  getOutputPort(int vcIndex)              { return m_vcs[vcIndex].getOutputPort(); }
 	public int  getOutputVC(int vcIndex)                { return m_vcs[vcIndex].getOuputVC(); }
-	public void setFlitInput(Flit flit)                 { m_inputFlit = flit; }
+	public void setFlitInput(int flit)                  { m_inputFlit = flit; wake(); }
 	public void setWaitingVC(int vcIndex)               { m_vcs[vcIndex].setWaitingVC(); }
 	public void incCurrVCCredits()                      { m_vcs[getCurrVC()].incCredits(); }
 }
@@ -6,32 +6,39 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public class InputVC extends VirtualChannel {
 
 	private int    m_connectedOutputPort;
 	private int    m_connectedOutputVC;
 	private Buffer m_buffer;
 	
-	public InputVC(int portNum, int index, Console console, int bufferSize) {
-		super(portNum, index, console);
+	public InputVC(Port port, int index, Console console, int bufferSize) {
+		super(port, index, console);
 		m_buffer = new Buffer(bufferSize, console);
 	}
 	
-	public boolean addFlit(Flit flit) {
+	public boolean addFlit(int flit) {
 		if(isIdle())
 			setActive();
-		return m_buffer.offerFlit(flit);
+		boolean added = m_buffer.offerFlit(flit);
+		flitsChanged();
+		return added;
 	}
 	
-	public Flit takeFlit() {
+	public int takeFlit() {
 		if(isActive() || isWaitingVC()) {
-			Flit flit = m_buffer.takeFlit();
-			if(flit instanceof TailFlit)
+			int flit = m_buffer.takeFlit();
+			flitsChanged();
+			if(Flit.isTail(flit))
 				closeConnection();
 			decCredits();
 			return flit;
 		} else {
-			return null;
+			return Flit.NONE;
 		}
 	}
 	
@@ -45,29 +52,48 @@ public class InputVC extends VirtualChannel {
 	}
 	
 	public void closeConnection() {
-		console("closing connection I["+getPortNum()+":"+getIndex()+"] state: "+getStateStack());
+		EventLog log = log();
+		if(log != null)
+			log.record(EventLog.CLOSE_INPUT, getPortNum(), getIndex(), getDepth(), 
+					(int) getStack(), (int) (getStack() >>> 32), 0);
 		popState();
 	}
 	
-	public void replaceHeadFlit(Flit flit) {
+	public void replaceHeadFlit(int flit) {
 		m_buffer.replaceHeadFlit(flit);
+		flitsChanged();
 		incCredits();
 	}
 	
 	public void resetState() {
 		m_buffer.clear();
+		flitsChanged();
 		resetVCState();
 	}
 	
+	void write(DataOutputStream out) throws IOException {
+		super.write(out);
+		out.writeInt(m_connectedOutputPort);
+		out.writeInt(m_connectedOutputVC);
+		m_buffer.write(out);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		super.read(in);
+		m_connectedOutputPort = in.readInt();
+		m_connectedOutputVC = in.readInt();
+		m_buffer.read(in);
+	}
+	
 	public String toString() {
 		String to = (isIdle()?"-":"O["+m_connectedOutputPort+":"+m_connectedOutputVC+"]");
 		return String.format("%-12s%-12s%-12s%12s", to, getStateStr(), getCredits()+"", m_buffer.toString());
 	}
 
-	public Flit     peekFlit()                  { return m_buffer.peekFlit(); }
+	public int      peekFlit()                  { return m_buffer.peekFlit(); }
 	public boolean  isEmpty()                   { return !m_buffer.hasFlits(); }
 	public int      getOutputPort()             { return m_connectedOutputPort; }
 	public int      getOuputVC()                { return m_connectedOutputVC; }
 	public int      freeSlots()                 { return m_buffer.freeSlots(); }
-	public boolean  hasFlit()                   { return peekFlit() != null; }
+	public boolean  hasFlit()                   { return peekFlit() != Flit.NONE; }
 }
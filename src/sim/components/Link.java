@@ -6,41 +6,52 @@
  */ 
 package sim.components;
 
-import java.util.LinkedList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import sim.Simulator;
 
 public class Link implements Component {
 	
 	private int                 m_id;
 	
 	// Input objects
-	private Flit                m_inputFlit;
-	private Credit              m_inputCredit;
+	private int                 m_inputFlit;
+	private int                 m_inputCredit;
 	
 	// State objects
 	private int                 m_delay;
 	private OutputPort          m_fromPort;
 	private InputPort           m_toPort;
-	private LinkedList<Flit>    m_transitFlits;
-	private LinkedList<Credit>  m_transitCredits;
+	private int[]               m_transitFlits;
+	private int[]               m_transitCredits;
+	private int                 m_numFlits;
+	private int                 m_numCredits;
+	private ActiveSet           m_activity;
+	private int                 m_activityIndex;
 	
 	public Link(int id, int delay) {
 		super();
 		m_id             = id;
 		m_delay          = delay;
-		m_inputFlit      = null;
-		m_inputCredit    = null;
-		m_transitFlits   = new LinkedList<Flit>();
-		m_transitCredits = new LinkedList<Credit>();
+		m_inputFlit      = Flit.NONE;
+		m_inputCredit    = Credit.NONE;
+		m_transitFlits   = new int[delay + 1];
+		m_transitCredits = new int[delay + 1];
+		m_numFlits       = 0;
+		m_numCredits     = 0;
+		Arrays.fill(m_transitFlits, Flit.NONE);
+		Arrays.fill(m_transitCredits, Credit.NONE);
 	}
 	
 	/*
-	 * If the link is empty take the next queued flit and transfer it
+	 * Take any new flit or credit and put it in transit
 	 */
 	public void update() {
-		//System.out.println("link "+m_id+" numFlits="+m_transitFlits.size()+", numCredits "+m_transitCredits.size());
 		readInputFlits();
 		readInputCredits();
-		transmitSignals();
 	}
 
 	/*
@@ -53,13 +64,15 @@ public class Link implements Component {
 	}
 	
 	/*
-	 * Read an input flit
+	 * Read an input flit. Signals are held in a ring indexed by the cycle they 
+	 * arrive on, so a flit read in this cycle is delivered in the copy phase 
+	 * of cycle + delay - 1
 	 */
 	private void readInputFlits() {
-		if(m_inputFlit != null) {
-			m_inputFlit.zeroTransitCycles();
-			m_transitFlits.add(m_inputFlit);
-			m_inputFlit = null;
+		if(m_inputFlit != Flit.NONE) {
+			m_transitFlits[arrivalSlot()] = m_inputFlit;
+			m_numFlits++;
+			m_inputFlit = Flit.NONE;
 		}
 	}
 	
@@ -67,53 +80,115 @@ public class Link implements Component {
 	 * Read an input credit
 	 */
 	private void readInputCredits() {
-		if(m_inputCredit != null) {
-			m_inputCredit.zeroTransitCycles();
-			m_transitCredits.add(m_inputCredit);
-			m_inputCredit = null;
+		if(m_inputCredit != Credit.NONE) {
+			m_transitCredits[arrivalSlot()] = m_inputCredit;
+			m_numCredits++;
+			m_inputCredit = Credit.NONE;
 		}
 	}
 	
-	private void transmitSignals() {
-		for(Flit f : m_transitFlits)
-			f.incTransitCycles();
-		for(Credit c : m_transitCredits)
-			c.incTransitCycles();
-	}
-	
 	private void deliverFlit() {
-		if(!m_transitFlits.isEmpty()) {
-			if(m_transitFlits.getFirst().getTransitCycles() == m_delay) {
-				Flit flit = m_transitFlits.removeFirst();
+		if(m_numFlits > 0) {
+			int slot = currentSlot();
+			int flit = m_transitFlits[slot];
+			if(flit != Flit.NONE) {
+				m_transitFlits[slot] = Flit.NONE;
+				m_numFlits--;
 				m_toPort.setFlitInput(flit);
-				//System.out.println("Link "+m_id+" delivered flit "+flit);
 			}
 		}
 	}
 	
 	private void deliverCredit() {
-		if(!m_transitCredits.isEmpty()) {
-			if(m_transitCredits.getFirst().getTransitCycles() == m_delay) {
-				m_fromPort.setCreditInput(m_transitCredits.removeFirst());
-				//System.out.println("Link "+m_id+" delivered credit");
+		if(m_numCredits > 0) {
+			int slot = currentSlot();
+			int vc = m_transitCredits[slot];
+			if(vc != Credit.NONE) {
+				m_transitCredits[slot] = Credit.NONE;
+				m_numCredits--;
+				m_fromPort.setCreditInput(vc);
 			}
 		}
 	}
 	
+	private int currentSlot() { return (int) (Simulator.clock() % m_transitFlits.length); }
+	private int arrivalSlot() { return (int) ((Simulator.clock() + m_delay - 1) % m_transitFlits.length); }
+	
+	/*
+	 * A link is quiet when nothing is waiting to enter it or in transit
+	 */
+	public boolean isQuiet() {
+		return m_inputFlit == Flit.NONE && m_inputCredit == Credit.NONE && 
+			m_numFlits == 0 && m_numCredits == 0;
+	}
+	
+	public void setActivity(ActiveSet activity, int index) {
+		m_activity = activity;
+		m_activityIndex = index;
+	}
+	
+	private void wake() {
+		if(m_activity != null)
+			m_activity.wake(m_activityIndex);
+	}
+	
 	public void reset() {
-		m_transitFlits.clear();
-		m_transitCredits.clear();
-		m_inputFlit = null;
-		m_inputCredit = null;
+		Arrays.fill(m_transitFlits, Flit.NONE);
+		Arrays.fill(m_transitCredits, Credit.NONE);
+		m_numFlits = 0;
+		m_numCredits = 0;
+		m_inputFlit = Flit.NONE;
+		m_inputCredit = Credit.NONE;
 	}
 	
+	/*
+	 * Write the signals waiting to enter the link and those in transit. The 
+	 * transit rings are indexed by the clock, which is restored with them
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_inputFlit);
+		out.writeInt(m_inputCredit);
+		out.writeInt(m_transitFlits.length);
+		for(int i=0; i<m_transitFlits.length; i++) {
+			out.writeInt(m_transitFlits[i]);
+			out.writeInt(m_transitCredits[i]);
+		}
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		m_inputFlit = in.readInt();
+		m_inputCredit = in.readInt();
+		if(in.readInt() != m_transitFlits.length)
+			throw new IOException("link "+m_id+" has a different delay");
+		m_numFlits = 0;
+		m_numCredits = 0;
+		for(int i=0; i<m_transitFlits.length; i++) {
+			m_transitFlits[i] = in.readInt();
+			m_transitCredits[i] = in.readInt();
+			if(m_transitFlits[i] != Flit.NONE)
+				m_numFlits++;
+			if(m_transitCredits[i] != Credit.NONE)
+				m_numCredits++;
+		}
+	}
+	
+	/*
+	 * List the signals in transit in arrival order, each with the number of 
+	 * cycles until it is delivered
+	 */
 	public String toString() {
 		String s = m_id+"\t";
-		for(Flit f : m_transitFlits)
-			s += f+"("+f.getTransitCycles()+") ";
+		for(int i=0; i<m_transitFlits.length; i++) {
+			int f = m_transitFlits[(currentSlot() + i) % m_transitFlits.length];
+			if(f != Flit.NONE)
+				s += Flit.toString(f)+"("+i+") ";
+		}
 		s += "\t";
-		for(Credit c : m_transitCredits)
-			s += c+"("+c.getTransitCycles()+") ";
+		for(int i=0; i<m_transitCredits.length; i++) {
+			int vc = m_transitCredits[(currentSlot() + i) % m_transitCredits.length];
+			if(vc != Credit.NONE)
+				s += new Credit(vc)+"("+i+") ";
+		}
 		return s;
 	}
 	
@@ -124,8 +199,8 @@ public class Link implements Component {
 	public InputPort  getToPort()                        { return m_toPort; }
 	public OutputPort getFromPort()                      { return m_fromPort; }
 	public int        getDelay()                         { return m_delay; }
-	public void       setInputFlit(Flit flit)            { m_inputFlit = flit; }
-	public void       setInputCredit(Credit credit)      { m_inputCredit = credit; }
+	public void       setInputFlit(int flit)             { m_inputFlit = flit; wake(); }
+	public void       setInputCredit(int vc)             { m_inputCredit = vc; wake(); }
 	public int        getWeight()                        { return m_delay; }
 	public boolean    equals(Link link)                  { return getId() == link.getId(); }
 }
\ No newline at end of file
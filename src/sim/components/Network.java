@@ -6,9 +6,14 @@
  */ 
 package sim.components;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
@@ -21,20 +26,27 @@ import org.jgrapht.EdgeFactory;
 import org.jgrapht.ext.DOTExporter;
 
 import sim.Config;
+import sim.Config.EngineType;
+import sim.SimRandom;
 import sim.Utilities;
 import sim.routing.DimOrder;
 import sim.routing.Gra;
 import sim.routing.Minimal;
 import sim.routing.UpDown;
 import sim.routing.VGra;
+import sim.stats.Metrics;
 import sim.topology.Topology;
 import sim.topology.Visualise;
 
 public class Network implements DirectedGraph<Router, RouterLink> {
 
-	private Node[]       m_nodes;
-	private Router[]     m_routers;
-	private RouterLink[] m_links;
+	private Node[]         m_nodes;
+	private Router[]       m_routers;
+	private RouterLink[]   m_links;
+	private Link[]         m_allLinks;
+	private ActiveSet      m_awakeRouters;
+	private ActiveSet      m_awakeLinks;
+	private ParallelEngine m_engine;
 	
 	/*
 	 * Construct a new network with a topolgy, routing and traffic
@@ -51,6 +63,9 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 		m_nodes = Topology.createTopology();
 		m_routers = getNodeRouters();
 		m_links = getRouterLinks();
+		initActivity();
+		initEngine();
+		Metrics.init(this);
 		
 		//createTopologyImage(".");
 		
@@ -96,17 +111,143 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 		}
 	}*/
 
+	/*
+	 * Give every router and link an index into the sets of awake components.
+	 * Router indices are node ids, links are numbered in node order
+	 */
+	private void initActivity() {
+		List<Link> links = new ArrayList<Link>();
+		for(Node n : m_nodes)
+			links.addAll(Arrays.asList(n.getLinks()));
+		m_allLinks = links.toArray(new Link[links.size()]);
+		
+		m_awakeRouters = new ActiveSet(m_nodes.length);
+		m_awakeLinks = new ActiveSet(m_allLinks.length);
+		for(Node n : m_nodes)
+			n.setActivity(m_awakeRouters);
+		for(int i=0; i<m_allLinks.length; i++)
+			m_allLinks[i].setActivity(m_awakeLinks, i);
+	}
+
+	/*
+	 * Use the parallel engine if configured. Debug mode inspects components between 
+	 * cycles from the GUI, so always runs serially
+	 */
+	private void initEngine() {
+		m_engine = null;
+		if(Config.engine() != EngineType.PARALLEL)
+			return;
+		
+		if(Config.debugMode()) {
+			System.out.println("Using serial engine in debug mode\n");
+		} else {
+			m_engine = new ParallelEngine(this, Config.threads());
+			System.out.println("Using parallel engine with "+m_engine.numThreads()+" threads\n");
+		}
+	}
+	
+	/*
+	 * Step every node, then every awake link. Components are woken when a flit or 
+	 * credit is written to them and put back to sleep once they hold nothing, so 
+	 * quiet routers and links cost nothing. The update of one component never reads 
+	 * state written by another in the same phase, so visiting links after the nodes 
+	 * gives the same result as stepping them with their node
+	 */
 	public void step() {
+		if(m_engine != null) {
+			m_engine.step();
+			return;
+		}
+		
 		for(Node n : m_nodes)
 			n.update();
+		updateLinks(0, m_allLinks.length);
 		
 		for(Node n : m_nodes)
 			n.copy();
+		copyLinks(0, m_allLinks.length);
+	}
+	
+	/*
+	 * Update the awake links in [from, to), putting any that have emptied to sleep
+	 */
+	void updateLinks(int from, int to) {
+		for(int i = m_awakeLinks.next(from); i != -1 && i < to; i = m_awakeLinks.next(i+1)) {
+			if(m_allLinks[i].isQuiet())
+				m_awakeLinks.sleep(i);
+			else
+				m_allLinks[i].update();
+		}
+	}
+	
+	void copyLinks(int from, int to) {
+		for(int i = m_awakeLinks.next(from); i != -1 && i < to; i = m_awakeLinks.next(i+1))
+			m_allLinks[i].copy();
+	}
+	
+	/*
+	 * The packets part way through reassembly at every processor, which 
+	 * should be none once a run has drained
+	 */
+	public int partialPackets() {
+		int n = 0;
+		for(Node node : m_nodes)
+			n += node.partialPackets();
+		return n;
 	}
 	
 	public void reset() {
 		for(Node n : m_nodes)
 			n.reset();
+		m_awakeRouters.clear();
+		m_awakeLinks.clear();
+		Flit.reset();
+	}
+	
+	/*
+	 * Write the state of every node and link, the flits they hold, which are
+	 * awake and the random number generators of the routing functions. The
+	 * state is written in node order, so it can only be read into a network 
+	 * built from the same configuration
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_nodes.length);
+		out.writeInt(m_allLinks.length);
+		Flit.write(out);
+		out.writeInt(Processor.getMsgIdCount());
+		for(Node n : m_nodes)
+			n.write(out);
+		for(Link l : m_allLinks)
+			l.write(out);
+		m_awakeRouters.write(out);
+		m_awakeLinks.write(out);
+		for(Router r : m_routers)
+			if(r.getRoutingFn() instanceof DimOrder)
+				Utilities.writeRandom(out, ((DimOrder) r.getRoutingFn()).getRandom());
+	}
+	
+	/*
+	 * Read state written by write, keeping the routing functions' own random
+	 * number generators unless random is set
+	 */
+	public void read(DataInputStream in, boolean random) throws IOException {
+		if(in.readInt() != m_nodes.length || in.readInt() != m_allLinks.length)
+			throw new IOException("checkpoint is of a different network");
+		Flit.read(in);
+		Processor.setMsgIdCount(in.readInt());
+		for(Node n : m_nodes)
+			n.read(in);
+		for(Link l : m_allLinks)
+			l.read(in);
+		m_awakeRouters.read(in);
+		m_awakeLinks.read(in);
+		for(Router r : m_routers) {
+			if(r.getRoutingFn() instanceof DimOrder) {
+				SimRandom rand = Utilities.readRandom(in);
+				if(random)
+					((DimOrder) r.getRoutingFn()).setRandom(rand);
+			}
+		}
 	}
 	
 	private RouterLink[] getRouterLinks() {
@@ -137,6 +278,20 @@ public class Network implements DirectedGraph<Router, RouterLink> {
 		Visualise.createDotImage(file+".dot", file+".ps");
 	}
 	
+	/*
+	 * Write every component's event log to a binary file, which EventLog.main renders
+	 */
+	public void writeEventLogs(String filename) {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+			for(Node n : m_nodes)
+				n.writeEventLogs(out);
+			out.close();
+		} catch (IOException e) {
+			System.err.println("Error: could not write event log file "+filename);
+		}
+	}
+	
 	public void writeDot(String filename) {
 		DOTExporter<Router, RouterLink> export = new DOTExporter<Router, RouterLink>();
 		try {
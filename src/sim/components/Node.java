@@ -6,6 +6,9 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Set;
 
@@ -16,7 +19,8 @@ import sim.traffic.TraceEvent;
 
 /*
  * A node represents a single processor and router element (including links between) 
- * in a network. Outgoing link components are updated() and copied() here 
+ * in a network. The processor is stepped every cycle; the router only while it is 
+ * awake. Links are stepped by the network from its own set of awake links
  */
 public class Node implements Component {
 
@@ -26,6 +30,7 @@ public class Node implements Component {
 	private ProcessorLink m_procRouter;
 	private ProcessorLink m_routerProc;
 	private RouterLink[]  m_outputLinks;
+	private ActiveSet     m_awakeRouters;
 	
 	public Node(int id, int numInputs, int numOutputs) {
 		m_id          = id;
@@ -34,34 +39,51 @@ public class Node implements Component {
 		m_router      = new Router(id, m_procRouter, m_routerProc, numInputs, numOutputs);
 		m_processor   = new Processor(id, m_routerProc, m_procRouter);
 		m_outputLinks = null;
+		m_awakeRouters = null;
 	}
 
 	public void update() {
 		
-		m_processor.update();
-		m_router.update();
+		updateProcessor();
+		updateRouter();
 		
-		m_procRouter.update();
-		m_routerProc.update();
-		
-		for(Link l : m_outputLinks)
-			l.update();
-		
-		if(Config.debugMode()) {
+		if(Config.params().debugMode) {
 			m_processor.updateStateConsole();
 			m_router.updateStateConsole();
 		}
 	}
 	
 	public void copy() {
-		m_processor.copy();
-		m_router.copy();
-		
-		m_procRouter.copy();
-		m_routerProc.copy();
-		
-		for(Link l : m_outputLinks)
-			l.copy();
+		copyProcessor();
+		copyRouter();
+	}
+	
+	/*
+	 * Update the router if it is awake, or put it to sleep if it has run out 
+	 * of work. Nothing is delivered to a router between its copy and the next 
+	 * update, so checking here is the same as checking at the end of the cycle
+	 */
+	public void updateRouter() {
+		if(m_awakeRouters.isAwake(m_id)) {
+			if(m_router.isQuiet())
+				m_awakeRouters.sleep(m_id);
+			else
+				m_router.update();
+		}
+	}
+	
+	public void copyRouter() {
+		if(m_awakeRouters.isAwake(m_id))
+			m_router.copy();
+	}
+	
+	public void updateProcessor() { m_processor.update(); }
+	public void copyProcessor()   { m_processor.copy(); }
+	public int  partialPackets()  { return m_processor.partialPackets(); }
+	
+	public void setActivity(ActiveSet routers) {
+		m_awakeRouters = routers;
+		m_router.setActivity(routers);
 	}
 
 	public void reset() {
@@ -77,6 +99,19 @@ public class Node implements Component {
 			l.reset();
 	}
 	
+	/*
+	 * Write the processor and router. Links are written by the network
+	 */
+	void write(DataOutputStream out) throws IOException {
+		m_processor.write(out);
+		m_router.write(out);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		m_processor.read(in);
+		m_router.read(in);
+	}
+	
 	public void connectTo(Node to, int fromPort, int toPort) {
 		m_router.connectTo(to.getRouter(), fromPort, toPort);
 	}
@@ -85,6 +120,27 @@ public class Node implements Component {
 		Set<RouterLink> links = m_router.outgoingLinks();
 		m_outputLinks = links.toArray(new RouterLink[m_router.outgoingLinks().size()]);
 	} 
+	
+	/*
+	 * Return the links stepped with this node: both processor links and the outgoing router links
+	 */
+	public Link[] getLinks() {
+		Link[] links = new Link[m_outputLinks.length + 2];
+		links[0] = m_procRouter;
+		links[1] = m_routerProc;
+		System.arraycopy(m_outputLinks, 0, links, 2, m_outputLinks.length);
+		return links;
+	}
+
+	/*
+	 * Write the event logs of the processor and the router, each preceded by its title
+	 */
+	public void writeEventLogs(DataOutputStream out) throws IOException {
+		out.writeUTF(m_processor.getTitle());
+		m_processor.getLog().write(out);
+		out.writeUTF(m_router.getTitle());
+		m_router.getLog().write(out);
+	}
 
 	public int       getId()                                { return m_id; }
 	public JPanel    getRouterConsole()                     { return m_router.getConsole(); }
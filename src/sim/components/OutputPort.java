@@ -6,57 +6,60 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import sim.Config;
 
 public class OutputPort extends Port {
 
-	private Credit     m_inputCredit;
+	private int        m_inputCredit;
 	private OutputVC[] m_vcs;
 	
 	public OutputPort(Console console, int nodeId, int portNum, Link link, int numVCs) {
-		super(console, nodeId, portNum, link);
+		super(console, nodeId, portNum, link, numVCs);
 		m_vcs = new OutputVC[numVCs];
 		for(int i=0; i<m_vcs.length; i++)
-			m_vcs[i] = new OutputVC(portNum, i, console);
-		m_inputCredit = null;
+			m_vcs[i] = new OutputVC(this, i, console);
+		m_inputCredit = Credit.NONE;
 	}
 
 	/*
-	 * Read a credit input and return it
+	 * Read a credit input and return the VC it is for, or Credit.NONE
 	 */
-	public Credit readInputCredit() {
-		if(m_inputCredit != null) {
-			Credit c = m_inputCredit;
-			m_inputCredit = null;
-			return c;
-		}
-		return null;
+	public int readInputCredit() {
+		int vc = m_inputCredit;
+		m_inputCredit = Credit.NONE;
+		return vc;
 	}
 	
 	/*
 	 * Add a flit to an output VC
 	 */
-	public void addFlit(int outputVC, Flit flit) {
+	public void addFlit(int outputVC, int flit) {
 		m_vcs[outputVC].addFlit(flit);
 		//console("O["+getPortNum()+":"+outputVC+"] added flit "+flit.toShortStr());
 	}
 	
 	/*
-	 * Pick the next active VC round-robin and send the queued flit. Also, increment the hop count
+	 * Pick the next active VC round-robin and send the queued flit. Also, increment the hop count.
+	 * Return true if a flit was sent
 	 */
-	public void writeOutputFlit() {
+	public boolean writeOutputFlit() {
 		
-		for(int j=1; j<m_vcs.length+1; j++) {
-			int index = (getCurrVC() + j) % m_vcs.length;
-			if(m_vcs[index].isActive() && m_vcs[index].hasFlit()) {
-				setCurrVC(index);
-				Flit flit = m_vcs[getCurrVC()].takeFlit();
-				flit.incHops();
-				//System.out.println("Output port wrote flit on VC "+getCurrVC());
-				getLink().setInputFlit(flit);
-				console("O["+getPortNum()+":"+getCurrVC()+"] wrote flit "+flit+" to link "+getLink().getId());
-				return;
-			}
+		int index = nextVC(activeVCs() & flitVCs(), m_vcs.length);
+		if(index != -1) {
+			setCurrVC(index);
+			int flit = m_vcs[getCurrVC()].takeFlit();
+			Flit.incHops(flit);
+			//System.out.println("Output port wrote flit on VC "+getCurrVC());
+			getLink().setInputFlit(flit);
+			EventLog log = log();
+			if(log != null)
+				log.record(EventLog.FLIT_WRITTEN, getPortNum(), getCurrVC(), Flit.getMsgId(flit), 
+						EventLog.flit(flit), getLink().getId(), 0);
+			return true;
 		}
 		
 		/*if(m_vcs[getCurrVC()].isActive() && m_vcs[getCurrVC()].hasFlit()) {
@@ -65,6 +68,7 @@ public class OutputPort extends Port {
 			getLink().setInputFlit(flit);
 			console("O["+getPortNum()+":"+getCurrVC()+"] wrote flit "+flit+" to link "+getLink().getId());
 		}*/
+		return false;
 	}
 	
 	/*
@@ -75,30 +79,27 @@ public class OutputPort extends Port {
 	 * for comparision of segment with lashtor
 	 */
 	public int allocVC() {
-		for(int i=0; i<(int)Math.min(Config.availableVCs(), m_vcs.length); i++) {
-			if(m_vcs[i].isIdle() && m_vcs[i].hasFullCredits()) {
-				//System.out.println("OP "+getPortNum()+" allocated VC "+i);
-				return i;
-			}
-		}
-		return -1;
+		int available = Math.min(Config.params().availableVCs, m_vcs.length);
+		int free = idleVCs() & fullCreditVCs() & (int)((1L << available) - 1);
+		return free == 0 ? -1 : Integer.numberOfTrailingZeros(free);
 	}
 	
 	/*
 	 * Attempt to allocate a specific virtual channel
 	 */
 	public int allocVC(int vcIndex) {
-		if(m_vcs[vcIndex].isIdle() && m_vcs[vcIndex].hasFullCredits()) {
-			//System.out.println("OP "+getPortNum()+" allocated VC "+i);
-			return vcIndex;
+		if(vcIndex >= m_vcs.length) {
+			System.err.println("Error: routed to VC "+vcIndex+" of O["+getPortNum()+
+					"] which has only "+m_vcs.length+" VCs");
+			System.exit(1);
 		}
-		return -1;
+		return (idleVCs() & fullCreditVCs() & (1 << vcIndex)) != 0 ? vcIndex : -1;
 	}
 	
 	public void reset() {
 		for(OutputVC vc : m_vcs)
 			vc.resetState();
-		m_inputCredit = null;
+		m_inputCredit = Credit.NONE;
 		setCurrVC(0);
 	}
 	
@@ -111,6 +112,27 @@ public class OutputPort extends Port {
 		m_vcs[vcIndex].setupConnection(inputPortNum, inputVC);
 	}
 	
+	void write(DataOutputStream out) throws IOException {
+		super.write(out);
+		out.writeInt(m_inputCredit);
+		for(OutputVC vc : m_vcs)
+			vc.write(out);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		super.read(in);
+		m_inputCredit = in.readInt();
+		for(OutputVC vc : m_vcs)
+			vc.read(in);
+	}
+	
+	/*
+	 * A port is quiet when it holds no flits and has no credit to read
+	 */
+	public boolean isQuiet() {
+		return m_inputCredit == Credit.NONE && flitVCs() == 0;
+	}
+	
 	public String toString() {
 		String s = "";
 		for(int i=0; i<m_vcs.length; i++) {
@@ -125,7 +147,7 @@ public class OutputPort extends Port {
 	public int     getDownStreamNodePort()       { return getLink().getToPort().getPortNum(); } // could neaten this
 	public int     getConnectedInputPort(int vc) { return m_vcs[vc].getConnectedInputPort(); }
 	public int     getConnectedInputVC(int vc)   { return m_vcs[vc].getConnectedInputVC(); }
-	public void    setCreditInput(Credit credit) { m_inputCredit = credit; }
-	public boolean hasCredits(int vcIndex)       { return !m_vcs[vcIndex].isWaitingCdt(); }
-	public boolean isEmpty(int vcIndex)          { return !m_vcs[vcIndex].hasFlit(); }
+	public void    setCreditInput(int vc)        { m_inputCredit = vc; wake(); }
+	public boolean hasCredits(int vcIndex)       { return (waitingCdtVCs() & (1 << vcIndex)) == 0; }
+	public boolean isEmpty(int vcIndex)          { return (flitVCs() & (1 << vcIndex)) == 0; }
 }
@@ -6,36 +6,45 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public class OutputVC extends VirtualChannel {
 
-	private int  m_connectedInputPort;
-	private int  m_connectedInputVC;
-	private Flit m_flit;
+	private int m_connectedInputPort;
+	private int m_connectedInputVC;
+	private int m_flit;
 	
-	public OutputVC(int portNum, int index, Console console) {
-		super(portNum, index, console);
-		m_flit = null;
+	public OutputVC(Port port, int index, Console console) {
+		super(port, index, console);
+		m_flit = Flit.NONE;
 	}
 	
-	public void addFlit(Flit flit) {
-		if(m_flit != null) {
-			System.err.println(flit+": output VC O["+getPortNum()+":"+getIndex()+"] not empty: contains "+m_flit);
-			console(flit+": output VC O["+getPortNum()+":"+getIndex()+"] not empty: contains "+m_flit);
+	public void addFlit(int flit) {
+		if(m_flit != Flit.NONE) {
+			System.err.println(Flit.toString(flit)+": output VC O["+getPortNum()+":"+getIndex()+"] not empty: contains "+Flit.toString(m_flit));
+			EventLog log = log();
+			if(log != null)
+				log.record(EventLog.VC_NOT_EMPTY, getPortNum(), getIndex(), Flit.getMsgId(flit), 
+						EventLog.flit(flit), Flit.getMsgId(m_flit), EventLog.flit(m_flit));
 		}
 		m_flit = flit;
-		m_flit.setVC(getIndex());
+		Flit.setVC(m_flit, getIndex());
+		flitsChanged();
 	}
 	
-	public Flit takeFlit() {
+	public int takeFlit() {
 		if(isActive()) {
-			Flit flit = m_flit;
-			if(flit instanceof TailFlit)
+			int flit = m_flit;
+			if(Flit.isTail(flit))
 				closeConnection();
 			decCredits();
-			m_flit = null;
+			m_flit = Flit.NONE;
+			flitsChanged();
 			return flit;
 		} else {
-			return null;
+			return Flit.NONE;
 		}
 	}
 	
@@ -50,21 +59,38 @@ public class OutputVC extends VirtualChannel {
 	
 	public void closeConnection() {
 		popState();
-		console("closing connection O["+getPortNum()+":"+getIndex()+"]");
+		EventLog log = log();
+		if(log != null)
+			log.record(EventLog.CLOSE_OUTPUT, getPortNum(), getIndex());
 	}
 	
 	public String toString(int downstreamNodeId, int downstreamNodePort) {
 		String to = (isIdle()?"-":""+downstreamNodeId+":I["+downstreamNodePort+":"+getIndex()+"]");
-		String flit = m_flit != null ? m_flit.toString() : "";
+		String flit = m_flit != Flit.NONE ? Flit.toString(m_flit) : "";
 		return String.format("%-12s%-12s%-12s", to, getStateStr(), getCredits(), flit);
 	}
 
 	public void resetState() {
-		m_flit = null;
+		m_flit = Flit.NONE;
+		flitsChanged();
 		resetVCState();
 	}
+	
+	void write(DataOutputStream out) throws IOException {
+		super.write(out);
+		out.writeInt(m_connectedInputPort);
+		out.writeInt(m_connectedInputVC);
+		out.writeInt(m_flit);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		super.read(in);
+		m_connectedInputPort = in.readInt();
+		m_connectedInputVC = in.readInt();
+		m_flit = in.readInt();
+	}
 
 	public int     getConnectedInputPort() { return m_connectedInputPort; }
 	public int     getConnectedInputVC()   { return m_connectedInputVC; }
-	public boolean hasFlit()               { return m_flit != null; }
+	public boolean hasFlit()               { return m_flit != Flit.NONE; }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import sim.mapreduce.Tag;
+
+/*
+ * A processor's source queue. Packets wait as descriptors in a growable
+ * power-of-two ring and their flits are only made as they are taken, so the
+ * queue costs a few words per packet however long the packets are. Flits keep
+ * the cycle their packet was generated in as their injection time
+ */
+public class PacketQueue {
+
+	private int     m_src;
+	private int     m_mask;
+	private int     m_head;
+	private int     m_size;
+	private int     m_numFlits;
+
+	// The number of flits already taken from the head packet
+	private int     m_taken;
+
+	private int[]   m_msgId;
+	private int[]   m_sample;
+	private int[]   m_dest;
+	private int[]   m_length;
+	private int[]   m_job;
+	private Tag[]   m_tag;
+	private int[][] m_data;
+	private long[]  m_genTime;
+
+	public PacketQueue(int src, int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 1));
+		if(size < capacity)
+			size <<= 1;
+		m_src      = src;
+		m_mask     = size - 1;
+		m_msgId    = new int[size];
+		m_sample   = new int[size];
+		m_dest     = new int[size];
+		m_length   = new int[size];
+		m_job      = new int[size];
+		m_tag      = new Tag[size];
+		m_data     = new int[size][];
+		m_genTime  = new long[size];
+		clear();
+	}
+
+	/*
+	 * Queue a packet of length body flits. data may be null, in which case the
+	 * body flits carry zero
+	 */
+	public void offer(int msgId, int sample, int dest, int length, int job, Tag tag, int[] data, long genTime) {
+		if(m_size == m_msgId.length)
+			grow();
+		int i = (m_head + m_size) & m_mask;
+		m_msgId[i]   = msgId;
+		m_sample[i]  = sample;
+		m_dest[i]    = dest;
+		m_length[i]  = length;
+		m_job[i]     = job;
+		m_tag[i]     = tag;
+		m_data[i]    = data;
+		m_genTime[i] = genTime;
+		m_size++;
+		m_numFlits += length + 2;
+	}
+
+	/*
+	 * The type of the next flit, without making it
+	 */
+	public byte nextType() {
+		if(m_taken == 0)
+			return Flit.HEADER;
+		return m_taken <= m_length[m_head] ? Flit.BODY : Flit.TAIL;
+	}
+
+	/*
+	 * Make the next flit of the head packet, dropping the packet once its tail
+	 * has been taken
+	 */
+	public int takeFlit() {
+		if(m_size == 0)
+			return Flit.NONE;
+		int i = m_head;
+		int flit;
+		switch(nextType()) {
+		case Flit.HEADER:
+			flit = Flit.newHeader(m_msgId[i], m_sample[i], m_src, m_dest[i], m_length[i], m_job[i], m_tag[i]);
+			break;
+		case Flit.BODY:
+			int seqNum = m_taken - 1;
+			flit = Flit.newBody(m_msgId[i], m_sample[i], seqNum, m_data[i] == null ? 0 : m_data[i][seqNum]);
+			break;
+		default:
+			flit = Flit.newTail(m_msgId[i], m_sample[i]);
+			m_tag[i] = null;
+			m_data[i] = null;
+			m_head = (m_head + 1) & m_mask;
+			m_size--;
+			m_taken = -1;
+			break;
+		}
+		Flit.setInjTime(flit, m_genTime[i]);
+		m_taken++;
+		m_numFlits--;
+		return flit;
+	}
+
+	private void grow() {
+		int n = m_msgId.length;
+		m_msgId   = unroll(m_msgId, new int[n << 1]);
+		m_sample  = unroll(m_sample, new int[n << 1]);
+		m_dest    = unroll(m_dest, new int[n << 1]);
+		m_length  = unroll(m_length, new int[n << 1]);
+		m_job     = unroll(m_job, new int[n << 1]);
+		m_tag     = unroll(m_tag, new Tag[n << 1]);
+		m_data    = unroll(m_data, new int[n << 1][]);
+		m_genTime = unroll(m_genTime, new long[n << 1]);
+		m_mask    = (n << 1) - 1;
+		m_head    = 0;
+	}
+
+	/*
+	 * Copy a full ring into the front of a larger array, head first
+	 */
+	private <T> T unroll(T ring, T grown) {
+		int n = Array.getLength(ring);
+		System.arraycopy(ring, m_head, grown, 0, n - m_head);
+		System.arraycopy(ring, 0, grown, n - m_head, m_head);
+		return grown;
+	}
+
+	public void clear() {
+		Arrays.fill(m_tag, null);
+		Arrays.fill(m_data, null);
+		m_head     = 0;
+		m_size     = 0;
+		m_numFlits = 0;
+		m_taken    = 0;
+	}
+
+	/*
+	 * Write the packets head first and the number of flits taken from the 
+	 * head. Tags are not written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_size);
+		out.writeInt(m_taken);
+		for(int n=0; n<m_size; n++) {
+			int i = (m_head + n) & m_mask;
+			out.writeInt(m_msgId[i]);
+			out.writeInt(m_sample[i]);
+			out.writeInt(m_dest[i]);
+			out.writeInt(m_length[i]);
+			out.writeInt(m_job[i]);
+			out.writeLong(m_genTime[i]);
+			out.writeInt(m_data[i] == null ? -1 : m_data[i].length);
+			if(m_data[i] != null)
+				for(int d : m_data[i])
+					out.writeInt(d);
+		}
+	}
+
+	void read(DataInputStream in) throws IOException {
+		clear();
+		int size = in.readInt();
+		int taken = in.readInt();
+		for(int n=0; n<size; n++) {
+			int msgId = in.readInt();
+			int sample = in.readInt();
+			int dest = in.readInt();
+			int length = in.readInt();
+			int job = in.readInt();
+			long genTime = in.readLong();
+			int[] data = null;
+			int dataLength = in.readInt();
+			if(dataLength >= 0) {
+				data = new int[dataLength];
+				for(int d=0; d<dataLength; d++)
+					data[d] = in.readInt();
+			}
+			offer(msgId, sample, dest, length, job, null, data, genTime);
+		}
+		m_taken = taken;
+		m_numFlits -= taken;
+	}
+
+	public String toString() {
+		String s = String.format("%-16s%-16s%-16s%-16s\n", "Message", "Dest", "Length", "Sent");
+		for(int n=0; n<m_size; n++) {
+			int i = (m_head + n) & m_mask;
+			s += String.format("%-16d%-16d%-16d%-16d\n", m_msgId[i], m_dest[i], m_length[i], n == 0 ? m_taken : 0);
+		}
+		return s;
+	}
+
+	public int     size()        { return m_size; }
+	public int     numFlits()    { return m_numFlits; }
+	public boolean isEmpty()     { return m_size == 0; }
+	public int     capacity()    { return m_msgId.length; }
+}
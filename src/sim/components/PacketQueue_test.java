@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.components;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class PacketQueue_test {
+
+	@Test
+	public void testFlitsMadeInOrder() {
+		PacketQueue q = new PacketQueue(3, 1);
+		q.offer(9, -1, 4, 2, -1, null, new int[] {5, 6}, 17);
+		assertEquals(4, q.numFlits());
+		assertEquals(Flit.HEADER, q.nextType());
+		int h = q.takeFlit();
+		assertTrue(Flit.isHeader(h));
+		assertEquals(3, Flit.getSrc(h));
+		assertEquals(4, Flit.getDest(h));
+		assertEquals(17, Flit.getInjTime(h));
+		assertEquals(Flit.BODY, q.nextType());
+		assertEquals(5, Flit.getData(q.takeFlit()));
+		int b = q.takeFlit();
+		assertEquals(1, Flit.getSeqNum(b));
+		assertEquals(6, Flit.getData(b));
+		assertEquals(Flit.TAIL, q.nextType());
+		assertTrue(Flit.isTail(q.takeFlit()));
+		assertTrue(q.isEmpty());
+		assertEquals(0, q.numFlits());
+		assertEquals(Flit.NONE, q.takeFlit());
+	}
+
+	@Test
+	public void testGrowKeepsOrder() {
+		PacketQueue q = new PacketQueue(0, 2);
+		q.offer(0, -1, 1, 0, -1, null, null, 0);
+		q.takeFlit();
+		q.takeFlit();
+		for(int i=1; i<=5; i++)
+			q.offer(i, -1, 1, 0, -1, null, null, i);
+		assertEquals(8, q.capacity());
+		for(int i=1; i<=5; i++) {
+			int h = q.takeFlit();
+			assertEquals(i, Flit.getMsgId(h));
+			assertEquals(i, Flit.getInjTime(h));
+			assertTrue(Flit.isTail(q.takeFlit()));
+		}
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		PacketQueue q = new PacketQueue(3, 1);
+		q.offer(9, 2, 4, 2, -1, null, new int[] {5, 6}, 17);
+		q.offer(10, -1, 1, 0, -1, null, null, 18);
+		q.takeFlit();
+		q.takeFlit();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		q.write(new DataOutputStream(bytes));
+		PacketQueue r = new PacketQueue(3, 1);
+		r.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(2, r.size());
+		assertEquals(q.numFlits(), r.numFlits());
+		int b = r.takeFlit();
+		assertTrue(Flit.isBody(b));
+		assertEquals(6, Flit.getData(b));
+		assertEquals(2, Flit.sampleNum(b));
+		assertTrue(Flit.isTail(r.takeFlit()));
+		int h = r.takeFlit();
+		assertEquals(10, Flit.getMsgId(h));
+		assertEquals(18, Flit.getInjTime(h));
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/*
+ * Steps the network with a fixed pool of worker threads, each owning a contiguous
+ * range of nodes and the links stepped with them. A cycle is split into two phases
+ * separated by barriers: every update, then every copy.
+ *
+ * Processors generate traffic from the shared random stream, record into the
+ * global statistics and may grow the flit arena, so they are updated serially in
+ * node order by the calling thread before the workers are started on the routers
+ * and links. As every update reads only the current state, the order does not
+ * matter, and the start barrier publishes the arena to the workers. Nothing else in
+ * the update or copy phases touches shared state, so the results are identical to
+ * the serial engine
+ */
+public class ParallelEngine {
+
+	private Network       m_network;
+	private Node[]        m_nodes;
+	private Worker[]      m_workers;
+	private CyclicBarrier m_start;
+	private CyclicBarrier m_updated;
+	private CyclicBarrier m_copied;
+
+	private class Worker extends Thread {
+
+		private int m_fromNode;
+		private int m_toNode;
+		private int m_fromLink;
+		private int m_toLink;
+
+		public Worker(int fromNode, int toNode, int fromLink, int toLink) {
+			m_fromNode = fromNode;
+			m_toNode = toNode;
+			m_fromLink = fromLink;
+			m_toLink = toLink;
+			setName("engine-"+fromNode+"-"+toNode);
+			setDaemon(true);
+		}
+
+		public void run() {
+			try {
+				while(true) {
+					await(m_start);
+					for(int i=m_fromNode; i<m_toNode; i++)
+						m_nodes[i].updateRouter();
+					m_network.updateLinks(m_fromLink, m_toLink);
+					await(m_updated);
+
+					for(int i=m_fromNode; i<m_toNode; i++)
+						m_nodes[i].copy();
+					m_network.copyLinks(m_fromLink, m_toLink);
+					await(m_copied);
+				}
+			} catch (Throwable e) {
+				// Errors too, and break the barriers so the main thread 
+				// cannot wait forever for this one
+				System.err.println("Error: simulation engine thread "+getName()+" failed");
+				e.printStackTrace();
+				m_start.reset();
+				m_updated.reset();
+				m_copied.reset();
+				System.exit(1);
+			}
+		}
+	}
+
+	public ParallelEngine(Network network, int numThreads) {
+		m_network = network;
+		m_nodes = network.getNodes();
+
+		// Links are numbered in node order, so record where each node's links start
+		int[] firstLink = new int[m_nodes.length + 1];
+		for(int i=0; i<m_nodes.length; i++)
+			firstLink[i+1] = firstLink[i] + m_nodes[i].getLinks().length;
+
+		int threads = Math.max(1, Math.min(numThreads, m_nodes.length));
+		m_workers = new Worker[threads];
+		m_start   = new CyclicBarrier(threads + 1);
+		m_updated = new CyclicBarrier(threads + 1);
+		m_copied  = new CyclicBarrier(threads + 1);
+
+		for(int t=0; t<threads; t++) {
+			int from = (int) ((long) m_nodes.length * t / threads);
+			int to   = (int) ((long) m_nodes.length * (t+1) / threads);
+			m_workers[t] = new Worker(from, to, firstLink[from], firstLink[to]);
+			m_workers[t].start();
+		}
+	}
+
+	/*
+	 * Perform one cycle. Returns once every component has been copied
+	 */
+	public void step() {
+		for(Node n : m_nodes)
+			n.updateProcessor();
+		await(m_start);
+		await(m_updated);
+		await(m_copied);
+	}
+
+	private static void await(CyclicBarrier barrier) {
+		try {
+			barrier.await();
+		} catch (InterruptedException e) {
+			System.err.println("Error: simulation engine interrupted");
+			System.exit(1);
+		} catch (BrokenBarrierException e) {
+			System.err.println("Error: simulation engine barrier broken");
+			System.exit(1);
+		}
+	}
+
+	public int numThreads() { return m_workers.length; }
+}
@@ -6,26 +6,111 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/*
+ * A port also keeps a bit mask of its VCs for each VC state, for the VCs 
+ * holding a flit and for those with full credits, which the VCs update as 
+ * they change. Arbitration and allocation then work on whole masks rather 
+ * than scanning the VCs
+ */
 public class Port {
 	
-	private Console m_console;
-	private int     m_nodeId;
-	private int     m_portNum;
-	private int     m_currVC;
-	private Link    m_link;
+	public static final int MAX_VCS = 32;
+	
+	private EventLog  m_log;
+	private int       m_nodeId;
+	private int       m_portNum;
+	private int       m_currVC;
+	private Link      m_link;
+	private ActiveSet m_activity;
+	private int[]     m_stateVCs;
+	private int       m_flitVCs;
+	private int       m_fullCreditVCs;
 	
-	public Port(Console console, int nodeId, int portNum, Link link) {
-		m_console = console;
+	public Port(Console console, int nodeId, int portNum, Link link, int numVCs) {
+		if(numVCs > MAX_VCS) {
+			System.err.println("Error: a port can have at most "+MAX_VCS+" VCs");
+			System.exit(1);
+		}
+		m_log = console.getLog();
 		m_nodeId = nodeId;
 		m_portNum = portNum;
 		m_link = link;
 		m_currVC = 0;
+		m_activity = null;
+		m_stateVCs = new int[VirtualChannel.NUM_STATES];
+		m_flitVCs = 0;
+		m_fullCreditVCs = 0;
+	}
+	
+	/*
+	 * Return the first VC in mask after the current one, wrapping round, or 
+	 * -1 if the mask is empty. The current VC is considered last
+	 */
+	public int nextVC(int mask, int numVCs) {
+		if(mask == 0)
+			return -1;
+		int start = (m_currVC + 1) % numVCs;
+		long bits = mask & 0xFFFFFFFFL;
+		long rotated = (bits >>> start) | (bits << (numVCs - start));
+		return (start + Long.numberOfTrailingZeros(rotated)) % numVCs;
+	}
+	
+	void moveVC(int vcBit, int fromState, int toState) {
+		m_stateVCs[fromState] &= ~vcBit;
+		m_stateVCs[toState] |= vcBit;
+	}
+	
+	void setVCHasFlit(int vcBit, boolean hasFlit) {
+		m_flitVCs = hasFlit ? m_flitVCs | vcBit : m_flitVCs & ~vcBit;
+	}
+	
+	void setVCFullCredits(int vcBit, boolean full) {
+		m_fullCreditVCs = full ? m_fullCreditVCs | vcBit : m_fullCreditVCs & ~vcBit;
+	}
+	
+	/*
+	 * Write the round-robin position and the VC masks
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_currVC);
+		for(int s : m_stateVCs)
+			out.writeInt(s);
+		out.writeInt(m_flitVCs);
+		out.writeInt(m_fullCreditVCs);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		m_currVC = in.readInt();
+		for(int i=0; i<m_stateVCs.length; i++)
+			m_stateVCs[i] = in.readInt();
+		m_flitVCs = in.readInt();
+		m_fullCreditVCs = in.readInt();
+	}
+	
+	/*
+	 * Mark the owning component as having work. Processor ports have no 
+	 * activity set as processors are stepped every cycle
+	 */
+	public void wake() {
+		if(m_activity != null)
+			m_activity.wake(m_nodeId);
 	}
 	
-	public int  getNodeId()            { return m_nodeId; }
-	public int  getPortNum()           { return m_portNum;	}
-	public Link getLink()              { return m_link; }
-	public int  getCurrVC()            { return m_currVC; }
-	public void setCurrVC(int vcIndex) { m_currVC = vcIndex; }
-	public void console(String s)      { m_console.console(s); }
+	public int  getNodeId()                     { return m_nodeId; }
+	public int  getPortNum()                    { return m_portNum;	}
+	public Link getLink()                       { return m_link; }
+	public int  getCurrVC()                     { return m_currVC; }
+	public void setCurrVC(int vcIndex)          { m_currVC = vcIndex; }
+	public EventLog log()                       { return m_log; }
+	public void setActivity(ActiveSet activity) { m_activity = activity; }
+	public int  idleVCs()                       { return m_stateVCs[VirtualChannel.IDLE]; }
+	public int  activeVCs()                     { return m_stateVCs[VirtualChannel.ACTIVE]; }
+	public int  waitingCdtVCs()                 { return m_stateVCs[VirtualChannel.WAIT_C]; }
+	public int  waitingVCVCs()                  { return m_stateVCs[VirtualChannel.WAIT_VC]; }
+	public int  flitVCs()                       { return m_flitVCs; }
+	public int  fullCreditVCs()                 { return m_fullCreditVCs; }
 }
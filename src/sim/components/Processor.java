@@ -9,14 +9,18 @@ package sim.components;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
 
 import sim.Config;
 import sim.DebugMode;
 import sim.RunMode;
+import sim.SimParams;
 import sim.Simulator;
-import sim.Config.TrafficType;
 import sim.stats.Stats;
 import sim.traffic.Injection;
 import sim.traffic.TraceEvent;
@@ -36,8 +40,8 @@ implements Component {
 	private int                    m_nodeId;
 	private InputPort              m_inputPort;
 	private OutputPort             m_outputPort;
-	private LinkedList<Flit>       m_pendingFlits;
-	private LinkedList<Flit>       m_receivedFlits;
+	private PacketQueue            m_pendingPackets;
+	private ReassemblyTable        m_reassembly;
 	private LinkedList<TraceEvent> m_pendingEvents;
 	
 	// Reserved for MapReduce
@@ -50,8 +54,8 @@ implements Component {
 	public Processor(int nodeId, ProcessorLink fromRouter, ProcessorLink toRouter) {
 		super();
 		m_nodeId        = nodeId;
-		m_pendingFlits  = new LinkedList<Flit>();
-		m_receivedFlits = new LinkedList<Flit>();
+		m_pendingPackets = new PacketQueue(nodeId, 4);
+		m_reassembly   = new ReassemblyTable(1);
 		
 		// Connect router
 		m_inputPort     = new InputPort(this, m_nodeId, 0, fromRouter, 1);
@@ -88,9 +92,9 @@ implements Component {
 	 * Read any new credits from output port and update VC credits
 	 */
 	private void readIncomingCredits() {
-		Credit credit = m_outputPort.readInputCredit();
-		if(credit != null)
-			m_outputPort.incrementCredits(credit.getVC());
+		int vc = m_outputPort.readInputCredit();
+		if(vc != Credit.NONE)
+			m_outputPort.incrementCredits(vc);
 	}
 	
 	/*
@@ -98,81 +102,54 @@ implements Component {
 	 * Call incCurrVCCredits() as processor consumes flits
 	 * 
 	 * NOTE: for now, don't store all received flits
-	 * NOTE: for non-minimal algorithms will require a ROB
+	 * NOTE: flits may arrive in any order, a packet is retired once the 
+	 * reassembly table has all of them
 	 */
 	private void readIncomingFlits() {
 		
-		// Initialise variables for MapReduce.
-		Tag tag = Tag.Undefined;
-		ArrayList<Integer> data = new ArrayList<Integer>();
-		int source = -1;
-		int job_id = -1;
-		
 		m_inputPort.readInputFlit();
-		Flit flit = m_inputPort.peekNextFlit();
+		int flit = m_inputPort.peekNextFlit();
 
-		if(flit != null) {
-			flit.setTimeReceived(Simulator.clock());
-			m_receivedFlits.add(m_inputPort.takeNextFlit());
-			console("Received flit "+flit);
+		if(flit != Flit.NONE) {
+			Flit.setTimeReceived(flit, Simulator.clock());
+			m_inputPort.takeNextFlit();
+			EventLog log = getLog();
+			if(log != null)
+				log.record(EventLog.FLIT_RECEIVED, Flit.getMsgId(flit), EventLog.flit(flit));
 			m_inputPort.incCurrVCCredits();
 			
-			// Only record stats once per packet, remove the packet from received
-			if(flit instanceof TailFlit) {
+			// Only record stats once per packet, when the last of its flits arrives
+			int entry = m_reassembly.receive(flit);
+			if(m_reassembly.unexpected())
+				System.err.println("Warning: duplicate or extra flit "+Flit.toString(flit));
+			if(m_reassembly.isComplete(entry)) {
+				Stats.retirePacket(m_nodeId, flit);
 				
-				boolean gotHead = false;
-				int bodyCount = 0;
-				int bodySize = -1;
-				for(Iterator<Flit> it  = m_receivedFlits.iterator(); it.hasNext(); ) {
-					Flit f = it.next();
-					if(flit.getMsgId() == f.getMsgId()) {
-						if(f instanceof HeaderFlit) {
-							gotHead = true;
-							bodySize = ((HeaderFlit)f).getLength();
-							
-							// If I'm running mapreduce, message will have a tag
-							if (Config.traffic().equals(TrafficType.MAPREDUCE)){
-								job_id = ((HeaderFlit)f).getJob();
-								tag = ((HeaderFlit)f).getTag();
-								source = ((HeaderFlit)f).getSrc();
-								//sources = ((HeaderFlit)f).getSources();
-							}
-						}
-						if(f instanceof BodyFlit){
-							bodyCount++;
-							if (Config.traffic().equals(TrafficType.MAPREDUCE)){
-								data.add( ((BodyFlit)f).getData() );
-							}
-						}
-						it.remove();
-					}
-				}
-
-				if(gotHead && bodyCount == bodySize) {
-					Stats.retirePacket(m_nodeId, flit);
-					
-					if (Config.traffic().equals(TrafficType.MAPREDUCE)){
-						mapreduce.get(job_id).RetirePacket(this, source, data, tag);
-					}
-
-				} else {
-					System.err.println("Error: incomplete packet");
+				// If I'm running mapreduce, message will have a tag
+				if (Config.params().mapReduceTraffic){
+					int[] data = Arrays.copyOf(m_reassembly.getPayload(entry), m_reassembly.getLength(entry));
+					mapreduce.get(m_reassembly.getJob(entry)).RetirePacket(this, 
+							m_reassembly.getSrc(entry), data, m_reassembly.getTag(entry));
 				}
+				m_reassembly.remove(entry);
 			}
 		}
 		Stats.retireFlit(m_nodeId, flit);
+		if(flit != Flit.NONE)
+			Flit.free(flit);
 	}
 	
 	/*
 	 * Take first pending flit and put on output port if that port is ready 
-	 * to accept flits. I.e. it is not waiting for credits.
+	 * to accept flits. I.e. it is not waiting for credits. The flit is only
+	 * made once it is sure to leave the source queue.
 	 */
 	private void routeOutgoingFlit() {	
-		if(!m_pendingFlits.isEmpty() && m_outputPort.hasCredits(PROC_VC)) {
-			Flit flit = m_pendingFlits.getFirst();
+		if(!m_pendingPackets.isEmpty() && m_outputPort.hasCredits(PROC_VC)) {
+			boolean header = m_pendingPackets.nextType() == Flit.HEADER;
 			int outputVC = 0;
 			
-			if(flit instanceof HeaderFlit) {
+			if(header) {
 				outputVC = m_outputPort.allocVC();
 				
 				if(outputVC == -1) {
@@ -180,12 +157,18 @@ implements Component {
 					return;
 				} else {
 					m_outputPort.setupConnection(PROC_VC, 0, 0);
-					console(flit+" opening connection through O[0:0]");
 				}
 			}
 			
+			int flit = m_pendingPackets.takeFlit();
+			if(header) {
+				EventLog log = getLog();
+				if(log != null)
+					log.record(EventLog.PROC_OPEN, Flit.getMsgId(flit), EventLog.flit(flit));
+				Stats.injectPacket(flit);
+			}
 			m_outputPort.setCurrVC(outputVC);
-			m_outputPort.addFlit(PROC_VC, m_pendingFlits.removeFirst());
+			m_outputPort.addFlit(PROC_VC, flit);
 		}
 	}
 
@@ -194,11 +177,12 @@ implements Component {
 	 * outside of limit or when draining on a proper run.
 	 */
 	private void generateTraffic() {
-		if((Config.debugMode() && m_msgIdCount == Config.maxMsgs() && Config.maxMsgs() > 0) ||
-				(Config.runMode() && Simulator.draining()))
+		SimParams params = Config.params();
+		if((params.debugMode && m_msgIdCount == params.maxMsgs && params.maxMsgs > 0) ||
+				(params.runMode && Simulator.draining()))
 			return;
 		
-		if(Config.traffic().equals(TrafficType.TRACE)) {
+		if(params.traceTraffic) {
 			// Take all of the pending trace events for this clock cycle
 			for(Iterator<TraceEvent> it = m_pendingEvents.iterator(); it.hasNext();) {
 				TraceEvent e = (TraceEvent) it.next();
@@ -210,7 +194,7 @@ implements Component {
 				}
 			}
 		}
-		else if (Config.traffic().equals(TrafficType.MAPREDUCE)){
+		else if (params.mapReduceTraffic){
 			RunMapReduce();
 		}
 		else {
@@ -348,10 +332,7 @@ implements Component {
 	private void generatePacket(int dest, int length) {
 		int messageId = m_msgIdCount++;
 		int sample = Simulator.running() ? RunMode.sampleNum() : -1;
-		m_pendingFlits.addLast(new HeaderFlit(messageId, sample, m_nodeId, dest, length));
-		for(int i=0; i<length; i++)
-			m_pendingFlits.addLast(new BodyFlit(messageId, sample, i));
-		m_pendingFlits.addLast(new TailFlit(messageId, sample));
+		m_pendingPackets.offer(messageId, sample, dest, length, -1, null, null, Simulator.clock());
 		//System.out.println("Node "+m_nodeId+" generated packet "+length+" flits to node "+dest+" at "+Simulator.clock());
 		Stats.newPacket();
 	}
@@ -359,10 +340,7 @@ implements Component {
 	public void generatePacket(int dest, int[] data, int job_no, Tag tag) {
 		int messageId = m_msgIdCount++;
 		int sample = Simulator.running() ? RunMode.sampleNum() : -1;
-		m_pendingFlits.addLast(new HeaderFlit(messageId, sample, m_nodeId, dest, data.length, job_no, tag));
-		for(int i=0; i<data.length; i++)
-			m_pendingFlits.addLast(new BodyFlit(messageId, sample, i, data[i]));
-		m_pendingFlits.addLast(new TailFlit(messageId, sample));
+		m_pendingPackets.offer(messageId, sample, dest, data.length, job_no, tag, data, Simulator.clock());
 		//System.out.println("Node "+m_nodeId+" generated packet "+length+" flits to node "+dest+" at "+Simulator.clock());
 		Stats.newPacket();
 	}
@@ -374,10 +352,10 @@ implements Component {
 	/*public void generatePacket(int dest, int[] data, LinkedList<Integer> sources, int job_no, Tag tag) {
 		int messageId = m_msgIdCount++;
 		int sample = Simulator.running() ? RunMode.sampleNum() : -1;
-		m_pendingFlits.addLast(new HeaderFlit(messageId, sample, m_nodeId, sources, dest, data.length, job_no, tag));
+		m_pendingFlits.offer(new HeaderFlit(messageId, sample, m_nodeId, sources, dest, data.length, job_no, tag));
 		for(int i=0; i<data.length; i++)
-			m_pendingFlits.addLast(new BodyFlit(messageId, sample, i, data[i]));
-		m_pendingFlits.addLast(new TailFlit(messageId, sample));
+			m_pendingFlits.offer(new BodyFlit(messageId, sample, i, data[i]));
+		m_pendingFlits.offer(new TailFlit(messageId, sample));
 		//System.out.println("Node "+m_nodeId+" generated packet "+length+" flits to node "+dest+" at "+Simulator.clock());
 		Stats.newPacket();
 	}*/
@@ -394,18 +372,20 @@ implements Component {
 		//s += "Link\tFlits\tCdts\n";
 		//s += m_outputPort.getLink()+"\n";
 		
-		s += "\n\n[PENDING FLITS : "+m_pendingFlits.size()+"]\n\n";
-		for(Flit f : m_pendingFlits)
-			s += f+"\n";
+		s += "\n\n[PENDING PACKETS : "+m_pendingPackets.size()+"]\n\n";
+		s += m_pendingPackets;
 		
-		s += "\n\n[RECEIVED FLITS : "+m_receivedFlits.size()+"]\n\n";
-		s += String.format("%-16s%-16s%-16%s\n", "Flit", "Rcvd@", "Hops");
-		for(Flit f : m_receivedFlits)
-			s += String.format("%-16s%-16d%-16d\n", f.toString(), f.getTimeReceived(), f.getNumHops());
+		s += "\n\n[PARTIAL PACKETS : "+m_reassembly.size()+"]\n\n";
+		s += m_reassembly;
 		
 		return s;
 	}
 
+	/*
+	 * The packets part way through reassembly
+	 */
+	public int partialPackets() { return m_reassembly.size(); }
+
 	private static boolean ContainsAllNulls(ArrayList<MapReduce> list)
 	{
 	    if(list != null){
@@ -416,12 +396,12 @@ implements Component {
 	}
 	
 	public void reset() {
-		m_pendingFlits.clear();
-		m_receivedFlits.clear();
+		m_pendingPackets.clear();
+		m_reassembly.clear();
 		m_inputPort.reset();
 		m_outputPort.reset();
 		
-		if (Config.traffic().equals(TrafficType.MAPREDUCE)){
+		if (Config.params().mapReduceTraffic){
 			state_m = StateMaster.Initial;
 			mapreduce.removeAll(mapreduce);
 		}
@@ -429,10 +409,42 @@ implements Component {
 
 	public int     getNodeId()         { return m_nodeId; }
 
+	/*
+	 * Write the source queue, the packets in reassembly, the ports and any 
+	 * trace events still to be generated
+	 */
+	void write(DataOutputStream out) throws IOException {
+		m_pendingPackets.write(out);
+		m_reassembly.write(out);
+		m_inputPort.write(out);
+		m_outputPort.write(out);
+		out.writeInt(m_pendingEvents == null ? -1 : m_pendingEvents.size());
+		if(m_pendingEvents != null) {
+			for(TraceEvent e : m_pendingEvents) {
+				out.writeLong(e.clock);
+				out.writeInt(e.dest);
+				out.writeInt(e.burst);
+			}
+		}
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		m_pendingPackets.read(in);
+		m_reassembly.read(in);
+		m_inputPort.read(in);
+		m_outputPort.read(in);
+		int events = in.readInt();
+		m_pendingEvents = events < 0 ? null : new LinkedList<TraceEvent>();
+		for(int i=0; i<events; i++)
+			m_pendingEvents.add(new TraceEvent(in.readLong(), in.readInt(), in.readInt()));
+	}
+	
+	static int  getMsgIdCount()          { return m_msgIdCount; }
+	static void setMsgIdCount(int count) { m_msgIdCount = count; }
+	
 	public String  getTitle()          { return "Processor "+m_nodeId; }
-	public boolean hasFlits()          { return !m_pendingFlits.isEmpty(); }
-	public Flit    peekFlit()          { return m_pendingFlits.peek(); }
-	public Flit    takeFlit()          { return m_pendingFlits.poll(); }
+	public boolean hasFlits()          { return !m_pendingPackets.isEmpty(); }
+	public int     numPendingFlits()   { return m_pendingPackets.numFlits(); }
 	public int	   getMaster()		   { return master; }
 	
 	public void SetStateMaster (StateMaster state) { state_m = state; }
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.components;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import sim.mapreduce.Tag;
+
+/*
+ * The packets a processor is part way through receiving, keyed by message id.
+ * Message ids map to entries through an open-addressing table with linear
+ * probing, and entries hold the header fields, the number of body flits seen
+ * and the payload indexed by sequence number. Flits may arrive in any order;
+ * a packet is complete once its header, tail and every body flit have arrived.
+ * Entries, and their payload arrays, are reused once a packet is removed
+ */
+public class ReassemblyTable {
+
+	private static final int EMPTY = -1;
+
+	// Message id -> entry
+	private int[]     m_keys;
+	private int[]     m_entries;
+	private int       m_mask;
+	private int       m_shift;
+	private int       m_size;
+
+	// Entries
+	private int[]     m_msgId;
+	private boolean[] m_gotHead;
+	private boolean[] m_gotTail;
+	private int[]     m_bodyCount;
+	private int[]     m_length;
+	private int[]     m_src;
+	private int[]     m_job;
+	private Tag[]     m_tag;
+	private int[][]   m_payload;
+	private int[]     m_nextFree;
+	private int       m_free;
+
+	// Whether the last flit received was a duplicate or beyond its packet
+	private boolean   m_unexpected;
+
+	/*
+	 * Make a table sized for the given number of packets in reassembly
+	 */
+	public ReassemblyTable(int capacity) {
+		int size = 2 * Integer.highestOneBit(Math.max(capacity, 1));
+		if(size < 2 * capacity)
+			size <<= 1;
+		setTableSize(size);
+		m_msgId     = new int[0];
+		m_gotHead   = new boolean[0];
+		m_gotTail   = new boolean[0];
+		m_bodyCount = new int[0];
+		m_length    = new int[0];
+		m_src       = new int[0];
+		m_job       = new int[0];
+		m_tag       = new Tag[0];
+		m_payload   = new int[0][];
+		m_nextFree  = new int[0];
+		m_free      = EMPTY;
+		growEntries(size / 2);
+	}
+
+	/*
+	 * Record the arrival of a flit and return the entry of its packet
+	 */
+	public int receive(int flit) {
+		int entry = lookup(Flit.getMsgId(flit));
+		m_unexpected = false;
+		switch(Flit.getType(flit)) {
+		case Flit.HEADER:
+			m_unexpected = m_gotHead[entry];
+			m_gotHead[entry] = true;
+			m_length[entry] = Flit.getLength(flit);
+			m_src[entry] = Flit.getSrc(flit);
+			m_job[entry] = Flit.getJob(flit);
+			m_tag[entry] = Flit.getTag(flit);
+			m_unexpected |= m_bodyCount[entry] > m_length[entry];
+			break;
+		case Flit.BODY:
+			int seqNum = Flit.getSeqNum(flit);
+			if(seqNum >= m_payload[entry].length)
+				m_payload[entry] = Arrays.copyOf(m_payload[entry], Math.max(seqNum + 1, 2 * m_payload[entry].length));
+			m_payload[entry][seqNum] = Flit.getData(flit);
+			m_bodyCount[entry]++;
+			m_unexpected = m_gotHead[entry] && m_bodyCount[entry] > m_length[entry];
+			break;
+		default:
+			m_unexpected = m_gotTail[entry];
+			m_gotTail[entry] = true;
+			break;
+		}
+		return entry;
+	}
+
+	/*
+	 * Remove a packet and put its entry back on the free list
+	 */
+	public void remove(int entry) {
+		int slot = find(m_msgId[entry]);
+		m_tag[entry] = null;
+		m_nextFree[entry] = m_free;
+		m_free = entry;
+
+		// Shift back any following keys that probed past this slot
+		int next = (slot + 1) & m_mask;
+		while(m_keys[next] != EMPTY) {
+			int home = hash(m_keys[next]);
+			if(((next - home) & m_mask) >= ((next - slot) & m_mask)) {
+				m_keys[slot] = m_keys[next];
+				m_entries[slot] = m_entries[next];
+				slot = next;
+			}
+			next = (next + 1) & m_mask;
+		}
+		m_keys[slot] = EMPTY;
+		m_size--;
+	}
+
+	public void clear() {
+		Arrays.fill(m_keys, EMPTY);
+		m_size = 0;
+		m_free = EMPTY;
+		for(int i=m_msgId.length-1; i>=0; i--) {
+			m_tag[i] = null;
+			m_nextFree[i] = m_free;
+			m_free = i;
+		}
+	}
+
+	/*
+	 * Write the packets in reassembly. Entries are made afresh when read, so
+	 * their numbers may change. Tags are not written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_size);
+		for(int i=0; i<m_keys.length; i++) {
+			if(m_keys[i] != EMPTY) {
+				int e = m_entries[i];
+				out.writeInt(m_msgId[e]);
+				out.writeBoolean(m_gotHead[e]);
+				out.writeBoolean(m_gotTail[e]);
+				out.writeInt(m_bodyCount[e]);
+				out.writeInt(m_length[e]);
+				out.writeInt(m_src[e]);
+				out.writeInt(m_job[e]);
+				out.writeInt(m_payload[e].length);
+				for(int d : m_payload[e])
+					out.writeInt(d);
+			}
+		}
+	}
+
+	void read(DataInputStream in) throws IOException {
+		clear();
+		int size = in.readInt();
+		for(int n=0; n<size; n++) {
+			int e = lookup(in.readInt());
+			m_gotHead[e] = in.readBoolean();
+			m_gotTail[e] = in.readBoolean();
+			m_bodyCount[e] = in.readInt();
+			m_length[e] = in.readInt();
+			m_src[e] = in.readInt();
+			m_job[e] = in.readInt();
+			m_payload[e] = new int[in.readInt()];
+			for(int i=0; i<m_payload[e].length; i++)
+				m_payload[e][i] = in.readInt();
+		}
+	}
+
+	/*
+	 * Return the entry for a message, making one if it is not in the table
+	 */
+	private int lookup(int msgId) {
+		int slot = hash(msgId);
+		while(m_keys[slot] != EMPTY) {
+			if(m_keys[slot] == msgId)
+				return m_entries[slot];
+			slot = (slot + 1) & m_mask;
+		}
+
+		if(2 * (m_size + 1) > m_keys.length) {
+			rehash();
+			return lookup(msgId);
+		}
+
+		if(m_free == EMPTY)
+			growEntries(m_msgId.length);
+		int entry = m_free;
+		m_free = m_nextFree[entry];
+		m_msgId[entry] = msgId;
+		m_gotHead[entry] = false;
+		m_gotTail[entry] = false;
+		m_bodyCount[entry] = 0;
+		m_keys[slot] = msgId;
+		m_entries[slot] = entry;
+		m_size++;
+		return entry;
+	}
+
+	private int find(int msgId) {
+		int slot = hash(msgId);
+		while(m_keys[slot] != msgId)
+			slot = (slot + 1) & m_mask;
+		return slot;
+	}
+
+	private void rehash() {
+		int[] keys = m_keys;
+		int[] entries = m_entries;
+		setTableSize(keys.length * 2);
+		for(int i=0; i<keys.length; i++) {
+			if(keys[i] != EMPTY) {
+				int slot = hash(keys[i]);
+				while(m_keys[slot] != EMPTY)
+					slot = (slot + 1) & m_mask;
+				m_keys[slot] = keys[i];
+				m_entries[slot] = entries[i];
+			}
+		}
+	}
+
+	private void setTableSize(int size) {
+		m_keys    = new int[size];
+		m_entries = new int[size];
+		m_mask    = size - 1;
+		m_shift   = 32 - Integer.numberOfTrailingZeros(size);
+		Arrays.fill(m_keys, EMPTY);
+	}
+
+	private void growEntries(int extra) {
+		int n = m_msgId.length;
+		m_msgId     = Arrays.copyOf(m_msgId, n + extra);
+		m_gotHead   = Arrays.copyOf(m_gotHead, n + extra);
+		m_gotTail   = Arrays.copyOf(m_gotTail, n + extra);
+		m_bodyCount = Arrays.copyOf(m_bodyCount, n + extra);
+		m_length    = Arrays.copyOf(m_length, n + extra);
+		m_src       = Arrays.copyOf(m_src, n + extra);
+		m_job       = Arrays.copyOf(m_job, n + extra);
+		m_tag       = Arrays.copyOf(m_tag, n + extra);
+		m_payload   = Arrays.copyOf(m_payload, n + extra);
+		m_nextFree  = Arrays.copyOf(m_nextFree, n + extra);
+		for(int i=n+extra-1; i>=n; i--) {
+			m_payload[i] = new int[0];
+			m_nextFree[i] = m_free;
+			m_free = i;
+		}
+	}
+
+	private int hash(int msgId) { return (msgId * 0x9E3779B9) >>> m_shift; }
+
+	public String toString() {
+		String s = String.format("%-16s%-16s%-16s\n", "Message", "Header", "Bodies");
+		for(int i=0; i<m_keys.length; i++) {
+			if(m_keys[i] != EMPTY) {
+				int e = m_entries[i];
+				s += String.format("%-16d%-16s%-16s\n", m_msgId[e], m_gotHead[e] ? "yes" : "no",
+						m_bodyCount[e]+(m_gotHead[e] ? "/"+m_length[e] : ""));
+			}
+		}
+		return s;
+	}
+
+	public boolean isComplete(int entry) { return m_gotHead[entry] && m_gotTail[entry] && m_bodyCount[entry] == m_length[entry]; }
+	public boolean unexpected()          { return m_unexpected; }
+	public int     getLength(int entry)  { return m_length[entry]; }
+	public int     getSrc(int entry)     { return m_src[entry]; }
+	public int     getJob(int entry)     { return m_job[entry]; }
+	public Tag     getTag(int entry)     { return m_tag[entry]; }
+	public int[]   getPayload(int entry) { return m_payload[entry]; }
+	public int     size()                { return m_size; }
+}
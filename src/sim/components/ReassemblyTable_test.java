@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.components;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ReassemblyTable_test {
+
+	@Test
+	public void testInOrderPacket() {
+		ReassemblyTable t = new ReassemblyTable(1);
+		int e = t.receive(Flit.newHeader(7, -1, 3, 5, 2));
+		assertFalse(t.isComplete(e));
+		t.receive(Flit.newBody(7, -1, 0, 10));
+		t.receive(Flit.newBody(7, -1, 1, 11));
+		assertEquals(e, t.receive(Flit.newTail(7, -1)));
+		assertTrue(t.isComplete(e));
+		assertEquals(3, t.getSrc(e));
+		assertEquals(2, t.getLength(e));
+		assertEquals(10, t.getPayload(e)[0]);
+		assertEquals(11, t.getPayload(e)[1]);
+		t.remove(e);
+		assertEquals(0, t.size());
+	}
+
+	@Test
+	public void testOutOfOrderPacket() {
+		ReassemblyTable t = new ReassemblyTable(1);
+		int e = t.receive(Flit.newTail(1, -1));
+		t.receive(Flit.newBody(1, -1, 1, 21));
+		assertFalse(t.isComplete(e));
+		t.receive(Flit.newHeader(1, -1, 0, 2, 2));
+		assertFalse(t.isComplete(e));
+		t.receive(Flit.newBody(1, -1, 0, 20));
+		assertTrue(t.isComplete(e));
+		assertEquals(20, t.getPayload(e)[0]);
+		assertEquals(21, t.getPayload(e)[1]);
+		assertFalse(t.unexpected());
+	}
+
+	@Test
+	public void testUnexpectedFlits() {
+		ReassemblyTable t = new ReassemblyTable(1);
+		t.receive(Flit.newBody(2, -1, 0, 30));
+		t.receive(Flit.newBody(2, -1, 1, 31));
+		assertFalse(t.unexpected());
+		t.receive(Flit.newHeader(2, -1, 0, 2, 1));
+		assertTrue(t.unexpected());
+		t.receive(Flit.newTail(2, -1));
+		assertFalse(t.unexpected());
+		t.receive(Flit.newTail(2, -1));
+		assertTrue(t.unexpected());
+		t.receive(Flit.newHeader(3, -1, 0, 2, 1));
+		assertFalse(t.unexpected());
+		t.receive(Flit.newHeader(3, -1, 0, 2, 1));
+		assertTrue(t.unexpected());
+		t.receive(Flit.newBody(3, -1, 0, 40));
+		assertFalse(t.unexpected());
+		t.receive(Flit.newBody(3, -1, 1, 41));
+		assertTrue(t.unexpected());
+	}
+
+	@Test
+	public void testManyInterleavedPackets() {
+		ReassemblyTable t = new ReassemblyTable(2);
+		int[] entries = new int[100];
+		for(int i=0; i<100; i++)
+			entries[i] = t.receive(Flit.newHeader(i * 64, -1, i, 0, 1));
+		assertEquals(100, t.size());
+		for(int i=0; i<100; i+=2) {
+			assertEquals(entries[i], t.receive(Flit.newBody(i * 64, -1, 0, i)));
+			t.receive(Flit.newTail(i * 64, -1));
+			assertTrue(t.isComplete(entries[i]));
+			t.remove(entries[i]);
+		}
+		assertEquals(50, t.size());
+		for(int i=1; i<100; i+=2) {
+			assertEquals(entries[i], t.receive(Flit.newBody(i * 64, -1, 0, i)));
+			assertFalse(t.isComplete(entries[i]));
+			assertEquals(i, t.getPayload(entries[i])[0]);
+		}
+		t.clear();
+		assertEquals(0, t.size());
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		ReassemblyTable t = new ReassemblyTable(1);
+		t.receive(Flit.newHeader(7, -1, 3, 5, 2));
+		t.receive(Flit.newBody(7, -1, 0, 10));
+		t.receive(Flit.newBody(8, -1, 1, 21));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		t.write(new DataOutputStream(bytes));
+		ReassemblyTable r = new ReassemblyTable(1);
+		r.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		assertEquals(2, r.size());
+		r.receive(Flit.newBody(7, -1, 1, 11));
+		int e = r.receive(Flit.newTail(7, -1));
+		assertTrue(r.isComplete(e));
+		assertEquals(3, r.getSrc(e));
+		assertEquals(10, r.getPayload(e)[0]);
+		assertEquals(11, r.getPayload(e)[1]);
+		r.receive(Flit.newHeader(8, -1, 4, 5, 2));
+		r.receive(Flit.newBody(8, -1, 0, 20));
+		e = r.receive(Flit.newTail(8, -1));
+		assertTrue(r.isComplete(e));
+		assertEquals(21, r.getPayload(e)[1]);
+	}
+}
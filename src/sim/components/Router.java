@@ -6,12 +6,17 @@
  */ 
 package sim.components;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
 import sim.Config;
+import sim.routing.Route;
 import sim.routing.RoutingFunction;
+import sim.stats.Metrics;
 
 public class Router extends Console
 implements Component {
@@ -86,11 +91,11 @@ implements Component {
 	 */
 	public void readCredits() {
 		for(OutputPort p : m_outputPorts) {
-			Credit credit = p.readInputCredit();
-			if(credit != null) {
-				m_outputPorts[p.getPortNum()].incrementCredits(credit.getVC());
-				int conInputPort = m_outputPorts[p.getPortNum()].getConnectedInputPort(credit.getVC());
-				int conInputVC = m_outputPorts[p.getPortNum()].getConnectedInputVC(credit.getVC());
+			int vc = p.readInputCredit();
+			if(vc != Credit.NONE) {
+				p.incrementCredits(vc);
+				int conInputPort = p.getConnectedInputPort(vc);
+				int conInputVC = p.getConnectedInputVC(vc);
 				m_inputPorts[conInputPort].incrementCredits(conInputVC);
 				//console("Recieved credit from output port "+p.getPortNum()+" connected to ["+conInputPort+":"+conInputVC+"]");
 			}
@@ -110,17 +115,17 @@ implements Component {
 	 * and route it through the switch
 	 */
 	private void routeInput(InputPort inputPort) {
-		Flit flit = inputPort.peekNextFlit();
-		if(flit != null) {
-			int inputVC = flit.getVC();
+		int flit = inputPort.peekNextFlit();
+		if(flit != Flit.NONE) {
+			int inputVC = Flit.getVC(flit);
 			int outputPort = -1;
 			int outputVC = -1;
 			
 			// Work out the output port and vc number
-			if(flit instanceof HeaderFlit) {
+			if(Flit.isHeader(flit)) {
 
-				int flitSrc = ((HeaderFlit)flit).getSrc();
-				int flitDest = ((HeaderFlit)flit).getDest();
+				int flitSrc = Flit.getSrc(flit);
+				int flitDest = Flit.getDest(flit);
 				int procId = m_outputPorts[m_procOutputPort].getDownStreamNodeId();
 				
 				// Select an output port and output virtual channel
@@ -128,9 +133,9 @@ implements Component {
 					outputPort = m_procOutputPort;
 					outputVC = m_outputPorts[outputPort].allocVC();
 				} else {
-					outputPort = flitDest == procId ? m_procOutputPort : 
-						m_routingFunction.getOutputPort(m_nodeId, inputVC, flitSrc, flitDest);
-					int routedVC = m_routingFunction.getOutputVC(m_nodeId, inputVC, flitSrc, flitDest);
+					int route = m_routingFunction.getRoute(m_nodeId, inputVC, flitSrc, flitDest);
+					outputPort = Route.port(route);
+					int routedVC = Route.vc(route);
 					outputVC = routedVC == -1 ? m_outputPorts[outputPort].allocVC() : 
 						m_outputPorts[outputPort].allocVC(routedVC);
 				}
@@ -138,17 +143,23 @@ implements Component {
 				// If could not allocate VC then replace flit and wait, otherwise open a connection
 				if(outputVC == -1) {
 					inputPort.setWaitingVC(inputVC);
-					console("could not allocate a VC for I["+inputPort.getPortNum()+":"+inputVC+"] on O["+outputPort+":?]");
+					Metrics.vcAllocFail(m_nodeId, outputPort);
+					EventLog log = getLog();
+					if(log != null)
+						log.record(EventLog.NO_VC, inputPort.getPortNum(), inputVC, outputPort);
 					return;
 				} else {
 					inputPort.setupConnection(inputVC, outputPort, outputVC);
 					m_outputPorts[outputPort].setupConnection(outputVC, inputPort.getPortNum(), inputVC);
-					console(flit+" opening connection I["+inputPort.getPortNum()+":"+inputVC+"] to O["+outputPort+":"+outputVC+"] on dsn VC "+outputVC);
+					EventLog log = getLog();
+					if(log != null)
+						log.record(EventLog.ROUTER_OPEN, Flit.getMsgId(flit), EventLog.flit(flit), 
+								inputPort.getPortNum(), inputVC, outputPort, outputVC);
 				}
 				
-			} else if(flit instanceof BodyFlit || flit instanceof TailFlit) {
-				outputPort = inputPort.getOutputPort(flit.getVC());
-				outputVC = inputPort.getOutputVC(flit.getVC());
+			} else {
+				outputPort = inputPort.getOutputPort(inputVC);
+				outputVC = inputPort.getOutputVC(inputVC);
 			}
 
 			// Only poll the input flit if the output is empty
@@ -156,6 +167,8 @@ implements Component {
 			if(m_outputPorts[outputPort].isEmpty(outputVC)) {
 				m_outputPorts[outputPort].addFlit(outputVC, inputPort.takeNextFlit());
 				//console("Routing link "+linkInput.getPortNum()+" flit "+flit.toShortStr()+" to OP["+outputPort+":"+flit.getVC()+"]");
+			} else {
+				Metrics.blocked(m_nodeId, outputPort, outputVC);
 			}
 		}
 	}
@@ -169,11 +182,18 @@ implements Component {
 	}
 	
 	/*
-	 * Write all pending flits to the links
+	 * Write all pending flits to the links, counting the flits carried by each 
+	 * router link and the VCs with a flit but no credits to send it
 	 */
 	private void writeFlitOutputs() {
-		for(int i=0; i<m_outputPorts.length; i++)
-			m_outputPorts[i].writeOutputFlit();
+		for(int i=0; i<m_outputPorts.length; i++) {
+			OutputPort p = m_outputPorts[i];
+			int stalled = p.waitingCdtVCs() & p.flitVCs();
+			if(stalled != 0)
+				Metrics.creditStalls(m_nodeId, i, stalled);
+			if(p.writeOutputFlit() && i != m_procOutputPort)
+				Metrics.linkFlit(p.getLink().getId());
+		}
 	}
 	
 	public String toString() {
@@ -209,6 +229,27 @@ implements Component {
 		return s;
 	}
 
+	/*
+	 * A router is quiet when none of its ports hold flits or signals, in 
+	 * which case update() and copy() would have nothing to do
+	 */
+	public boolean isQuiet() {
+		for(InputPort p : m_inputPorts)
+			if(!p.isQuiet())
+				return false;
+		for(OutputPort p : m_outputPorts)
+			if(!p.isQuiet())
+				return false;
+		return true;
+	}
+	
+	public void setActivity(ActiveSet activity) {
+		for(InputPort p : m_inputPorts)
+			p.setActivity(activity);
+		for(OutputPort p : m_outputPorts)
+			p.setActivity(activity);
+	}
+	
 	public void reset() {
 		for(InputPort p : m_inputPorts)
 			p.reset();
@@ -216,6 +257,20 @@ implements Component {
 			p.reset();
 	}
 	
+	void write(DataOutputStream out) throws IOException {
+		for(InputPort p : m_inputPorts)
+			p.write(out);
+		for(OutputPort p : m_outputPorts)
+			p.write(out);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		for(InputPort p : m_inputPorts)
+			p.read(in);
+		for(OutputPort p : m_outputPorts)
+			p.read(in);
+	}
+	
 	public Set<RouterLink> linkSet() {
 		HashSet<RouterLink> links = new HashSet<RouterLink>();
 		for(int i=0; i<m_inputPorts.length - 1; i++)
@@ -247,6 +302,10 @@ implements Component {
 		return -1;
 	}
 	
+	public RouterLink getOutputLink(int port) {
+		return (RouterLink) m_outputPorts[port].getLink();
+	}
+	
 	public RouterLink getLink(Router to) {
 		for(RouterLink l : outgoingLinks()) {
 			if(l.getTo().equals(to))
@@ -6,89 +6,144 @@
  */ 
 package sim.components;
 
-import java.util.LinkedList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 import sim.Config;
 
+/*
+ * The VC state is a stack, packed two bits per state into a long with the 
+ * top of the stack in the low bits. Every change to the top state, the 
+ * buffer or the credits is mirrored into the owning port's VC masks
+ */
 public abstract class VirtualChannel {
 	
-	private enum VCState { IDLE, ACTIVE, WAIT_C, WAIT_VC };
+	public static final int IDLE       = 0;
+	public static final int ACTIVE     = 1;
+	public static final int WAIT_C     = 2;
+	public static final int WAIT_VC    = 3;
+	public static final int NUM_STATES = 4;
 	
-	private Console    m_console;
-	private int        m_portNum;
-	private int        m_index;
-	private StateStack m_state;
-	private int        m_credits;
+	private static final int      MAX_DEPTH   = 32;
+	private static final String[] STATE_NAMES = { "IDLE", "ACTIVE", "WAIT_C", "WAIT_VC" };
 	
-	private class StateStack {
-		private LinkedList<VCState> m_stack;
-
-		public StateStack() {
-			m_stack = new LinkedList<VCState>();
-			m_stack.push(VCState.IDLE);
-		}
-		
-		public void reset() {
-			m_stack.clear();
-			m_stack.push(VCState.IDLE);
-		}
-		
-		public String toString() {
-			String s = "";
-			for(VCState vcs : m_stack)
-				s += vcs.name()+" ";
-			return s;
-		}
-
-	   	public void    push(VCState s) { m_stack.addFirst(s); }  
-	    public VCState pop()           { return m_stack.pollFirst(); }
-	    public VCState peek()          { return m_stack.peekFirst(); }
-	}
+	private EventLog m_log;
+	private Port    m_port;
+	private int     m_index;
+	private int     m_bit;
+	private long    m_stack;
+	private int     m_depth;
+	private int     m_credits;
 	
-	public VirtualChannel(int portNum, int index, Console console) {
-		m_portNum = portNum;
+	public VirtualChannel(Port port, int index, Console console) {
+		m_port = port;
 		m_index = index;
-		m_console = console;
-		m_state = new StateStack();
-		m_credits = Config.bufferSize();
+		m_bit = 1 << index;
+		m_log = console.getLog();
+		m_stack = IDLE;
+		m_depth = 1;
+		m_port.moveVC(m_bit, IDLE, IDLE);
+		setCredits(Config.params().bufferSize);
 	}
 
 	public int incCredits() {
 		if(isWaitingCdt())
-			m_state.pop();
+			pop();
 		
 		// bit of a hack...
 		if(hasFlit() && isIdle())
 			setActive();
 
-		return m_credits++;
+		setCredits(m_credits + 1);
+		return m_credits - 1;
 	}
 	
 	public int decCredits() {
 		if(getCredits() == 1)
-			m_state.push(VCState.WAIT_C);
-		return m_credits--;
+			push(WAIT_C);
+		setCredits(m_credits - 1);
+		return m_credits + 1;
 	}
 	
 	public void resetVCState() {
-		m_state.reset();
-		m_credits = Config.bufferSize();
+		int top = top();
+		m_stack = IDLE;
+		m_depth = 1;
+		m_port.moveVC(m_bit, top, IDLE);
+		setCredits(Config.params().bufferSize);
+	}
+	
+	private void push(int state) {
+		if(m_depth == MAX_DEPTH) {
+			System.err.println("Error: VC state stack overflow on port "+getPortNum()+" VC "+m_index);
+			System.exit(1);
+		}
+		int top = top();
+		m_stack = (m_stack << 2) | state;
+		m_depth++;
+		m_port.moveVC(m_bit, top, state);
+	}
+	
+	private void pop() {
+		int top = top();
+		m_stack >>>= 2;
+		m_depth--;
+		m_port.moveVC(m_bit, top, top());
+	}
+	
+	private void setCredits(int credits) {
+		m_credits = credits;
+		m_port.setVCFullCredits(m_bit, credits == Config.params().bufferSize);
+	}
+	
+	/*
+	 * Called by subclasses whenever a flit is added or removed
+	 */
+	protected void flitsChanged() {
+		m_port.setVCHasFlit(m_bit, hasFlit());
+	}
+	
+	/*
+	 * Write the state stack and credits. The port's VC masks are written 
+	 * with the port, so reading does not update them
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeLong(m_stack);
+		out.writeInt(m_depth);
+		out.writeInt(m_credits);
+	}
+	
+	void read(DataInputStream in) throws IOException {
+		m_stack = in.readLong();
+		m_depth = in.readInt();
+		m_credits = in.readInt();
+	}
+	
+	public static String stackStr(long stack, int depth) {
+		String s = "";
+		for(int i=0; i<depth; i++)
+			s += STATE_NAMES[(int) (stack >>> (2*i)) & 3]+" ";
+		return s;
 	}
 	
 	public abstract boolean hasFlit();
 	
-	public String  getStateStr()           { return m_state.peek().name(); }
-	public void    popState()              { m_state.pop(); }
-	public void    setActive()             { if(!isActive()) m_state.push(VCState.ACTIVE); }
-	public void    setWaitingVC()          { if(!isWaitingVC()) m_state.push(VCState.WAIT_VC); }
-	public boolean isIdle()                { return m_state.peek().equals(VCState.IDLE); }
-	public boolean isActive()              { return m_state.peek().equals(VCState.ACTIVE); }
-	public boolean isWaitingCdt()          { return m_state.peek().equals(VCState.WAIT_C); }
-	public boolean isWaitingVC()           { return m_state.peek().equals(VCState.WAIT_VC); }
+	private int    top()                   { return (int) m_stack & 3; }
+	public String  getStateStr()           { return STATE_NAMES[top()]; }
+	public void    popState()              { pop(); }
+	public void    setActive()             { if(!isActive()) push(ACTIVE); }
+	public void    setWaitingVC()          { if(!isWaitingVC()) push(WAIT_VC); }
+	public boolean isIdle()                { return top() == IDLE; }
+	public boolean isActive()              { return top() == ACTIVE; }
+	public boolean isWaitingCdt()          { return top() == WAIT_C; }
+	public boolean isWaitingVC()           { return top() == WAIT_VC; }
 	public int     getCredits()            { return m_credits; }
-	public boolean hasFullCredits()        { return m_credits == Config.bufferSize(); }
-	public int     getPortNum()            { return m_portNum; }
+	public boolean hasFullCredits()        { return m_credits == Config.params().bufferSize; }
+	public int     getPortNum()            { return m_port.getPortNum(); }
 	public int     getIndex()              { return m_index; }
-	public void    console(String text)    { m_console.console(text); }
-	public String  getStateStack()         { return m_state+""; }
+	public String  getStateStack()         { return stackStr(m_stack, m_depth); }
+	protected long getStack()              { return m_stack; }
+	protected int  getDepth()              { return m_depth; }
+	protected EventLog log()               { return m_log; }
 }
\ No newline at end of file
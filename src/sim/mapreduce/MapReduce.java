@@ -48,7 +48,7 @@ public class MapReduce {
 		
 	}
 	
-	public void RetirePacket(Processor p, int source, ArrayList<Integer> data, Tag tag){
+	public void RetirePacket(Processor p, int source, int[] data, Tag tag){
 		/*
 		 * Retire Packet is called by Processor every time a packet is received
 		 * by a processor in the network.
@@ -63,7 +63,7 @@ public class MapReduce {
 		 */
 		int node_id = p.getNodeId();
 		
-		Chunk chunk = ChunkUtils.IntegerListToChunk(data) ;
+		Chunk chunk = new Chunk(data);
 
 		// Buffer the output of the root ring in the master buffer.
 		if (IsInMasterSentNodes(source) && node_id == p.getMaster())
@@ -151,7 +151,7 @@ public class MapReduce {
 		int c_lev;
 		
 		if (IsTring())
-			c_lev = Tring.LevelOfNode (node_id, k);
+			c_lev = Tring.GetLevels()[node_id];
 		else
 			c_lev = Mesh.getLevel(node_id, k);
 		
@@ -355,7 +355,7 @@ public class MapReduce {
 		int c_lev;
 		
 		if (IsTring())
-			c_lev = Tring.LevelOfNode (node_id, k);
+			c_lev = Tring.GetLevels()[node_id];
 		else
 			c_lev = Mesh.getLevel(node_id, k);
 
@@ -6,55 +6,70 @@
  */ 
 package sim.routing;
 
+
 import sim.Config;
-import sim.Simulator;
+import sim.SimRandom;
 import sim.components.Network;
 import sim.components.Router;
 import sim.topology.Mesh;
 
+/*
+ * Dimension order routing on a mesh or torus. The coordinates of every node
+ * and the left and right port of every node in each dimension are computed 
+ * once and shared by the routers, so routing a header is a few array loads. 
+ * On a torus, a destination exactly half way round a ring is reached in a 
+ * random direction, drawn from the router's own random stream so routers 
+ * never share state
+ */
 public class DimOrder implements RoutingFunction {
 
 	private boolean m_mesh;
 	private int     _k;
 	private int     _n;
+	private int[]   m_coords;
+	private int[]   m_ports;
+	private SimRandom m_rand;
 	
-	public DimOrder(boolean mesh) {
+	/*
+	 * coords[node*n + dim] is a node's position in a dimension and 
+	 * ports[2*(node*n + dim)] and the next entry its left and right ports
+	 */
+	public DimOrder(boolean mesh, int[] coords, int[] ports, long seed) {
 		m_mesh = mesh;
 		_k = Config.k();
 		_n = Config.n();
+		m_coords = coords;
+		m_ports = ports;
+		m_rand = new SimRandom(seed);
 	}
 
 	public int getOutputPort(int current, int inputVC, int source, int dest) {
-		int D_i = 0;
-		int dim = -1;
+		int c = current * _n;
+		int d = dest * _n;
 		
 		// Find the first mismatching dimension
-		for(dim=0; dim<_n; dim++) {
+		for(int dim=0; dim<_n; dim++) {
 			
-			int destDimPos = getPosInDim(dest, dim);
-			int currDimPos = getPosInDim(current, dim);
+			int delta = m_coords[d+dim] - m_coords[c+dim];
 			
-			if(destDimPos != currDimPos) {
+			if(delta != 0) {
 				
+				boolean right;
 				if(m_mesh) {
-					D_i = destDimPos > currDimPos ? 1 : -1;
-					return D_i < 0 ? Mesh.getLeftPort(current, dim) : Mesh.getRightPort(current, dim);
+					right = delta > 0;
 				} else {
-					int m_i = (destDimPos - currDimPos) % _k;
-					int d_i = m_i - (m_i <= _k/2 ? 0 : _k);
-					D_i = d_i == _k/2 ? 0 : (d_i > 0 ? 1 : -1);
-					
-					// If equal distances, then just randomly choose a direction
-					if(D_i == 0)
-						D_i = Simulator.randDouble() > 0.5 ? 1 : -1;
-					
-					// If -1 then route left, otherwise route right
-					return D_i < 0 ? 2*dim : 2*dim+1;
+					// Take the shorter way round, and if the distances are 
+					// equal then just randomly choose a direction
+					if(delta < 0)
+						delta += _k;
+					right = 2*delta < _k || (2*delta == _k && m_rand.nextBoolean());
 				}
+				
+				// If -1 then route left, otherwise route right
+				return m_ports[2*(c+dim) + (right ? 1 : 0)];
 			}
 		}
 		
-		//System.out.println("H at "+current+", dest "+dest+" D_Ti="+D_Ti+" (port "+(D_Ti < 0 ? 2*dim : 2*dim+1)+")");
 		return -1;
 	}
 	
@@ -62,16 +77,32 @@ public class DimOrder implements RoutingFunction {
 		return -1;
 	}
 	
-	private int getPosInDim(int node, int dim) {
-		int kToDim = (int) Math.pow(_k, dim);
-		int posInDim = (node / kToDim) % _k;
-		return posInDim;
+	public int getRoute(int current, int inputVC, int source, int dest) {
+		return Route.pack(getOutputPort(current, inputVC, source, dest), -1);
 	}
 	
 	public static void configNetwork(Network network, boolean mesh) {
-		for(Router r : network.getRouters())
-			r.setRoutingFn(new DimOrder(mesh));		
+		int k = Config.k();
+		int n = Config.n();
+		Router[] routers = network.getRouters();
+		int[] coords = new int[routers.length * n];
+		int[] ports = new int[2 * routers.length * n];
+		
+		for(int node=0; node<routers.length; node++) {
+			for(int dim=0, kToDim=1; dim<n; dim++, kToDim*=k) {
+				int i = node*n + dim;
+				coords[i] = (node / kToDim) % k;
+				ports[2*i]   = mesh ? Mesh.getLeftPort(node, dim)  : 2*dim;
+				ports[2*i+1] = mesh ? Mesh.getRightPort(node, dim) : 2*dim+1;
+			}
+		}
+		
+		for(Router r : routers)
+			r.setRoutingFn(new DimOrder(mesh, coords, ports, Config.seed() * 0x9E3779B97F4A7C15L + r.getNodeId()));
 	}
 
 	public void clear() {}
+	
+	public SimRandom getRandom()               { return m_rand; }
+	public void      setRandom(SimRandom rand) { m_rand = rand; }
 }
@@ -17,6 +17,19 @@ public class Gra implements RoutingFunction {
 	private int _n;
 	private boolean[][] Paths;
 	
+	// Direction from each node to each other node within a ring, indexed by
+	// current*k + dest, worked out once from Paths and VC
+	private int[] directions;
+	
+	// Tring coordinates of every node, and (k-1)^i and the number of rings
+	// in each level, so a header is routed without recomputing them
+	private int[] level;
+	private int[] ring;
+	private int[] r_nid;
+	private int[] no_conn;
+	private int[] powers;
+	private int[] rings_lev;
+	
 	private int clockwise = 0;
 	private int anticlockwise = 1;
 	private int error = -1;
@@ -35,8 +48,8 @@ public class Gra implements RoutingFunction {
 	
 	public void SetK		(int k)					{ _k = k; }
 	public void SetN		(int n)					{ _n = n; }
-	public void SetPaths 	(boolean[][] Paths) 	{ this.Paths = Paths; }
-	public void SetVC		(boolean VC)			{ this.VC = VC; }
+	public void SetPaths 	(boolean[][] Paths) 	{ this.Paths = Paths; CreateRingDirections(); }
+	public void SetVC		(boolean VC)			{ this.VC = VC; CreateRingDirections(); }
 	
 	public Gra(){
 		_k = Config.k();
@@ -48,6 +61,8 @@ public class Gra implements RoutingFunction {
 		
 		// Create the paths
 		CreateRingPaths(dis_vertex1, dis_vertex2);
+		CreateRingDirections();
+		LoadCoordinates();
 	}
 	
 	// Create the class specifying the disabled path explicitly.
@@ -61,6 +76,23 @@ public class Gra implements RoutingFunction {
 				
 		// Create the paths
 		CreateRingPaths(dis_vertex1, dis_vertex2);
+		CreateRingDirections();
+		LoadCoordinates();
+	}
+	
+	private void LoadCoordinates(){
+		Tring.BuildCoordinates(_k, _n);
+		level   = Tring.GetLevels();
+		ring    = Tring.GetRings();
+		r_nid   = Tring.GetNodesWithinRing();
+		no_conn = Tring.GetNoConnections();
+		
+		powers = new int[_n+1];
+		rings_lev = new int[_n+1];
+		for (int i=0; i<=_n; i++){
+			powers[i] = (int)Math.pow(_k-1, i);
+			rings_lev[i] = Tring.RingsInLevel(_k, i);
+		}
 	}
 	
 	// Only for testing purposes. Comment in when using Gra_test
@@ -80,10 +112,6 @@ public class Gra implements RoutingFunction {
 		return ((node+1) == _k) ? 0 : (node+1);
 	}
 	
-	private int PreviousNode(int node){
-		return ((node-1) == -1) ? (_k-1) : (node-1);
-	}
-	
 	private int RingModulus(int source, int dest){
 		return (source-dest) < 0 ? (source-dest+_k) : (source-dest);
 	}
@@ -102,34 +130,48 @@ public class Gra implements RoutingFunction {
 		 * 		0 clockwise path.
 		 *     -1 current == destination
 		 */
-		if (current == dest){
-			return error;
-		}
+		return directions[current*_k + dest];
+	}
+	
+	private void CreateRingDirections(){
+		/*
+		 * Work out the direction from every node to every other node within
+		 * a ring. Without VCs, walk clockwise from each node and go
+		 * anti-clockwise to every node beyond the disallowed edge.
+		 */
+		directions = new int[_k*_k];
 		
-		if (VC){
-			// Select shortest path to destination.
-		if (RingModulus(current, dest) < RingModulus(dest, current))
-				return anticlockwise;
-			else
-				return clockwise;
-		}
-		else{
-			int ver2 = PreviousNode(current);
-			int ver1 = current;
+		for (int current=0; current<_k; current++){
 			
-			// Try going right.
-			do{
-				ver1 = NextNode(ver1);
-				ver2 = NextNode(ver2);
+			directions[current*_k + current] = error;
+			
+			if (VC){
+				// Select shortest path to destination.
+				for (int dest=0; dest<_k; dest++){
+					if (dest != current){
+						if (RingModulus(current, dest) < RingModulus(dest, current))
+							directions[current*_k + dest] = anticlockwise;
+						else
+							directions[current*_k + dest] = clockwise;
+					}
+				}
+			}
+			else{
+				int ver2 = current;
+				int ver1 = NextNode(current);
+				boolean allowed = true;
 				
-				if (Paths[ver1][ver2] == false)
-					// Clockwise path not allowed, go anti-clockwise.
-					return anticlockwise;
-	
-			} while (ver1 != dest);
-	
-			// Clockwise path allowed.
-			return clockwise;
+				// Try going right.
+				while (ver1 != current){
+					if (Paths[ver1][ver2] == false)
+						// Clockwise path not allowed, go anti-clockwise.
+						allowed = false;
+					
+					directions[current*_k + ver1] = allowed ? clockwise : anticlockwise;
+					ver1 = NextNode(ver1);
+					ver2 = NextNode(ver2);
+				}
+			}
 		}
 	}
 	
@@ -188,13 +230,13 @@ public class Gra implements RoutingFunction {
 		 * 	    Tring.Left, Tring.Right, Tring.Down, Tring.Up.
 		 */	
 		// Get Tags for current node
-		int c_lev	= Tring.LevelOfNode		(current, _k);
-		int c_rid 	= Tring.RingOfNode		(current, _k);
-		int c_rnid  = Tring.NodeWithinRing	(current, _k);
+		int c_lev	= level	[current];
+		int c_rid 	= ring	[current];
+		int c_rnid  = r_nid	[current];
 		
 		// Get Tags for destination node
-		int d_lev	= Tring.LevelOfNode		(dest, _k);
-		int d_rid 	= Tring.RingOfNode		(dest, _k);
+		int d_lev	= level	[dest];
+		int d_rid 	= ring	[dest];
 		
 		// Check destination ring is in family of current ring.
 		
@@ -209,9 +251,9 @@ public class Gra implements RoutingFunction {
 			int norm_rid = d_rid - family_lowerbound;
 			
 			if (c_lev == 1)
-				d_rnid = d_rid / (Tring.RingsInLevel(_k, d_lev) / _k);
+				d_rnid = d_rid / (rings_lev[d_lev] / _k);
 			else
-				d_rnid = norm_rid / (int) Math.pow((_k-1), d_lev-c_lev-1);
+				d_rnid = norm_rid / powers[d_lev-c_lev-1];
 			
 			if (c_rnid == d_rnid)
 				return Tring.GetDownPort();
@@ -239,8 +281,7 @@ public class Gra implements RoutingFunction {
 		 * Returns:
 		 * 	    The first ring id within that family.
 		 */	
-		int power = (int)Math.pow(_k-1, level);
-		int first_family = ring*power;
+		int first_family = ring*powers[level];
 		
 		return first_family;
 	}
@@ -248,17 +289,17 @@ public class Gra implements RoutingFunction {
 	public int getOutputPort(int current, int inputVC, int source, int dest) {
 		
 		// Get the number of connections for the current node
-		int no_connections = Tring.CalculateNoConnections(current, _k, _n);
+		int no_connections = no_conn[current];
 		
 		// Get Tags for current node
-		int c_lev	= Tring.LevelOfNode		(current, _k);
-		int c_rid 	= Tring.RingOfNode		(current, _k);
-		int c_rnid  = Tring.NodeWithinRing	(current, _k);
+		int c_lev	= level	[current];
+		int c_rid 	= ring	[current];
+		int c_rnid  = r_nid	[current];
 		
 		// Get Tags for destination node
-		int d_lev	= Tring.LevelOfNode		(dest, _k);
-		int d_rid 	= Tring.RingOfNode		(dest, _k);
-		int d_rnid  = Tring.NodeWithinRing	(dest, _k);
+		int d_lev	= level	[dest];
+		int d_rid 	= ring	[dest];
+		int d_rnid  = r_nid	[dest];
 		
 		// Decide what port to route to.
 		
@@ -295,6 +336,10 @@ public class Gra implements RoutingFunction {
 		return -1;
 	}
 	
+	public int getRoute(int current, int inputVC, int source, int dest) {
+		return Route.pack(getOutputPort(current, inputVC, source, dest), -1);
+	}
+	
 	private void CreateRingPaths(int dis_vertex1, int dis_vertex2){
 		// Create Paths
 		Paths = new boolean[_k][_k];
@@ -312,9 +357,14 @@ public class Gra implements RoutingFunction {
 		}	
 	}
 	
+	/*
+	 * Gra holds no state of its own router, so one instance, and one copy
+	 * of its ring tables, is shared by every router
+	 */
 	public static void configNetwork(Network network){
+		Gra gra = new Gra();
 		for (Router r : network.getRouters()){
-			r.setRoutingFn(new Gra());
+			r.setRoutingFn(gra);
 		}
 	}
 }
\ No newline at end of file
@@ -6,11 +6,13 @@
  */ 
 package sim.routing;
 
-import java.util.List;
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import org.jgrapht.alg.BellmanFordShortestPath;
-
+import sim.Config;
+import sim.Config.TopologyType;
 import sim.components.Network;
 import sim.components.Router;
 import sim.components.RouterLink;
@@ -22,13 +24,15 @@ import sim.graphs.Directed;
  */
 public class Minimal extends TableBased {
 	
-	public Minimal() {
-		super();
+	public Minimal(RoutingTable table, int nodeId) {
+		super(table, nodeId);
 	}
 
 	/*
 	 * For each router, calc shortest path to each other node. Write the corresponding 
-	 * output port in its routing table
+	 * output port in its routing table. Each source is a fork-join task, searching 
+	 * by BFS when every link has the same delay and by Dijkstra otherwise. Where 
+	 * several shortest paths leave by different ports the lowest port is taken
 	 */
 	public static void configNetwork(Network network) {
 
@@ -38,28 +42,215 @@ public class Minimal extends TableBased {
 		System.out.println("blah");
 		System.exit(1);*/
 		
+		long start = System.currentTimeMillis();
 		Router[] routers = network.getRouters();
+		RouterGraph graph = new RouterGraph(network);
+		RoutingTable table = Config.topology() == TopologyType.TORUS ? 
+				new RoutingTable(routers.length, Config.k(), Config.n()) : new RoutingTable(routers.length);
+		Minimal[] mins = new Minimal[routers.length];
 		
 		for(int i=0; i<routers.length; i++) {
+			mins[i] = new Minimal(table, routers[i].getNodeId());
+			routers[i].setRoutingFn(mins[i]);
+		}
+		
+		if(RoutingCache.load(graph, "", table)) {
+			System.out.println("Loaded routes from cache in "+(System.currentTimeMillis() - start)+" ms");
+			System.out.println(table.summary());
+			return;
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(Config.threads());
+		pool.invoke(new Sources(graph, mins, 0, routers.length));
+		pool.shutdown();
+		RoutingCache.store(graph, "", table);
+		
+		System.out.println("Computed "+(graph.unitDelay() ? "BFS" : "Dijkstra")+" routes from "+
+				routers.length+" routers in "+(System.currentTimeMillis() - start)+" ms");
+		System.out.println(table.summary());
+	}
+	
+	/*
+	 * Search from one source, filling in its routing table
+	 */
+	private static void routeFrom(RouterGraph graph, int src, Minimal min, Search s) {
+		if(graph.unitDelay())
+			s.bfs(graph, src);
+		else
+			s.dijkstra(graph, src);
+		
+		for(int j=0; j<graph.numNodes(); j++) {
+			s.routes[j] = Route.NONE;
+			if(j != src) {
+				if(s.dist[j] == -1)
+					System.err.println("Error: no path between nodes "+src+" and "+j);
+				else
+					s.routes[j] = Route.pack(s.hop[j], -1);
+			}
+		}
+		min.setRoutes(s.routes);
+	}
+	
+	/*
+	 * Split the sources in half until each task has one
+	 */
+	private static class Sources extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private static final ThreadLocal<Search> SEARCH = new ThreadLocal<Search>();
+		
+		private RouterGraph m_graph;
+		private Minimal[]   m_mins;
+		private int         m_from;
+		private int         m_to;
+		
+		Sources(RouterGraph graph, Minimal[] mins, int from, int to) {
+			m_graph = graph;
+			m_mins = mins;
+			m_from = from;
+			m_to = to;
+		}
+		
+		protected void compute() {
+			if(m_to - m_from > 1) {
+				int mid = (m_from + m_to) >>> 1;
+				invokeAll(new Sources(m_graph, m_mins, m_from, mid), 
+						new Sources(m_graph, m_mins, mid, m_to));
+			} else if(m_to > m_from) {
+				Search s = SEARCH.get();
+				if(s == null || s.dist.length != m_graph.numNodes()) {
+					s = new Search(m_graph);
+					SEARCH.set(s);
+				}
+				routeFrom(m_graph, m_from, m_mins[m_from], s);
+			}
+		}
+	}
+	
+	/*
+	 * The working arrays of a single source search, reused by each worker. 
+	 * hop[v] is the lowest output port at the source that starts a shortest
+	 * path to v, and routes the source's row of the table
+	 */
+	private static class Search {
+		
+		int[]  dist;
+		int[]  hop;
+		int[]  routes;
+		int[]  queue;
+		long[] heap;
+		
+		Search(RouterGraph graph) {
+			dist   = new int[graph.numNodes()];
+			hop    = new int[graph.numNodes()];
+			routes = new int[graph.numNodes()];
+			queue  = new int[graph.numNodes()];
+			heap   = new long[graph.numEdges() + 1];
+		}
+		
+		void bfs(RouterGraph graph, int src) {
+			Arrays.fill(dist, -1);
+			dist[src] = 0;
+			int head = 0;
+			int tail = 0;
 			
-			BellmanFordShortestPath<Router, RouterLink> sp = 
-				new BellmanFordShortestPath<Router, RouterLink>(network, routers[i]);
-			Minimal min = new Minimal();
-			routers[i].setRoutingFn(min);
+			for(int e=graph.firstEdge(src); e<graph.endEdge(src); e++) {
+				int v = graph.target(e);
+				if(dist[v] == -1) {
+					dist[v] = 1;
+					hop[v] = graph.port(e);
+					queue[tail++] = v;
+				}
+			}
 			
-			for(int j=0; j<routers.length; j++) {
-				if(i != j) {
-					List<RouterLink> path = sp.getPathEdgeList(routers[j]);
-					
-					if(path == null) {
-						System.err.println("Error: no path between nodes "+i+" and "+j);
-					} else {
-						int outputPort = routers[i].getOutputPort(path.get(0).getTo().getNodeId());
-						min.addTableEntry(routers[j].getNodeId(), outputPort, -1);
+			// Every node of a level is expanded before the next, so a node's
+			// hop is final before it is expanded
+			while(head < tail) {
+				int u = queue[head++];
+				for(int e=graph.firstEdge(u); e<graph.endEdge(u); e++) {
+					int v = graph.target(e);
+					if(dist[v] == -1) {
+						dist[v] = dist[u] + 1;
+						hop[v] = hop[u];
+						queue[tail++] = v;
+					} else if(dist[v] == dist[u] + 1 && hop[u] < hop[v]) {
+						hop[v] = hop[u];
 					}
 				}
 			}
 		}
+		
+		/*
+		 * Dijkstra with a binary heap of (distance, node) pairs packed into 
+		 * longs. Stale entries are skipped rather than decreased
+		 */
+		void dijkstra(RouterGraph graph, int src) {
+			Arrays.fill(dist, -1);
+			dist[src] = 0;
+			int size = 0;
+			
+			for(int e=graph.firstEdge(src); e<graph.endEdge(src); e++) {
+				int v = graph.target(e);
+				if(v != src && relax(v, graph.delay(e), graph.port(e)))
+					size = push(size, graph.delay(e), v);
+			}
+			
+			while(size > 0) {
+				long top = heap[0];
+				size = pop(size);
+				int u = (int) top;
+				if((int) (top >>> 32) != dist[u])
+					continue;
+				for(int e=graph.firstEdge(u); e<graph.endEdge(u); e++) {
+					int v = graph.target(e);
+					if(v != src && relax(v, dist[u] + graph.delay(e), hop[u]))
+						size = push(size, dist[v], v);
+				}
+			}
+		}
+		
+		/*
+		 * Offer a path to v, returning true if it is shorter than the best so far
+		 */
+		private boolean relax(int v, int d, int port) {
+			if(dist[v] == -1 || d < dist[v]) {
+				dist[v] = d;
+				hop[v] = port;
+				return true;
+			}
+			if(d == dist[v] && port < hop[v])
+				hop[v] = port;
+			return false;
+		}
+		
+		private int push(int size, int d, int v) {
+			if(size == heap.length)
+				heap = Arrays.copyOf(heap, 2 * heap.length);
+			long key = ((long) d << 32) | v;
+			int i = size;
+			while(i > 0 && heap[(i - 1) >> 1] > key) {
+				heap[i] = heap[(i - 1) >> 1];
+				i = (i - 1) >> 1;
+			}
+			heap[i] = key;
+			return size + 1;
+		}
+		
+		private int pop(int size) {
+			long key = heap[--size];
+			int i = 0;
+			while(2 * i + 1 < size) {
+				int c = 2 * i + 1;
+				if(c + 1 < size && heap[c + 1] < heap[c])
+					c++;
+				if(heap[c] >= key)
+					break;
+				heap[i] = heap[c];
+				i = c;
+			}
+			heap[i] = key;
+			return size;
+		}
 	}
 	
 	public static Directed createFullCDG(Network network) {
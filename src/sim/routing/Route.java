@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.routing;
+
+/*
+ * A route is an output port and an output VC packed into one int, the port
+ * in the low half and the VC in the high half, so either may be -1. NONE 
+ * unpacks to port -1 and VC -1
+ */
+public final class Route {
+
+	public static final int NONE = -1;
+	
+	private Route() {}
+	
+	public static int pack(int port, int vc) { return (port & 0xFFFF) | (vc << 16); }
+	public static int port(int route)        { return (short) route; }
+	public static int vc(int route)          { return route >> 16; }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.routing;
+
+import sim.components.Network;
+import sim.components.Router;
+import sim.components.RouterLink;
+
+/*
+ * The router links of a network in compressed sparse row form: the links out 
+ * of node i are entries m_offsets[i] to m_offsets[i+1]-1, in output port 
+ * order, each with the output port, the node at the far end and the delay
+ */
+public class RouterGraph {
+
+	private int[]   m_offsets;
+	private int[]   m_ports;
+	private int[]   m_targets;
+	private int[]   m_delays;
+	private boolean m_unitDelay;
+	
+	public RouterGraph(Network network) {
+		Router[] routers = network.getRouters();
+		
+		m_offsets = new int[routers.length + 1];
+		for(int i=0; i<routers.length; i++)
+			m_offsets[i+1] = m_offsets[i] + routers[i].outDegree();
+		
+		m_ports   = new int[m_offsets[routers.length]];
+		m_targets = new int[m_ports.length];
+		m_delays  = new int[m_ports.length];
+		m_unitDelay = true;
+		for(int i=0; i<routers.length; i++) {
+			for(int p=0; p<routers[i].outDegree(); p++) {
+				RouterLink link = routers[i].getOutputLink(p);
+				int e = m_offsets[i] + p;
+				m_ports[e]   = p;
+				m_targets[e] = link.getTo().getNodeId();
+				m_delays[e]  = link.getDelay();
+				if(m_delays[e] != m_delays[0])
+					m_unitDelay = false;
+			}
+		}
+	}
+	
+	public int     numNodes()         { return m_offsets.length - 1; }
+	public int     numEdges()         { return m_ports.length; }
+	public int     firstEdge(int i)   { return m_offsets[i]; }
+	public int     endEdge(int i)     { return m_offsets[i+1]; }
+	public int     port(int e)        { return m_ports[e]; }
+	public int     target(int e)      { return m_targets[e]; }
+	public int     delay(int e)       { return m_delays[e]; }
+	
+	/*
+	 * True if every link has the same delay, so hop count orders paths
+	 */
+	public boolean unitDelay()        { return m_unitDelay; }
+}
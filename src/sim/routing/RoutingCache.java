@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.routing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import sim.Config;
+
+/*
+ * A directory of routing tables computed by earlier runs, set by the 
+ * routing_cache parameter. A table is filed under a hash of the parameters 
+ * that shape it and of the router graph itself, so a different topology can
+ * never pick up the wrong table. Files hold a magic number and the table's
+ * compressed rows, and are memory mapped when read
+ */
+public class RoutingCache {
+
+	private static final int MAGIC = 0x52544332;
+	
+	private RoutingCache() {}
+	
+	/*
+	 * Fill the table from the cache, returning false if caching is off or 
+	 * the table has not been cached
+	 */
+	public static boolean load(RouterGraph graph, String key, RoutingTable table) {
+		File file = file(graph, key);
+		if(file == null || !file.exists())
+			return false;
+		
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				IntBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asIntBuffer();
+				if(in.remaining() < 1 || in.get() != MAGIC || !table.read(in)) {
+					System.err.println("Warning: ignoring bad routing cache file "+file);
+					return false;
+				}
+				return true;
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Warning: could not read routing cache file "+file);
+			return false;
+		}
+	}
+	
+	/*
+	 * Write the table to the cache. It is written to a temporary file first
+	 * and renamed, so runs sharing the cache never see part of a table
+	 */
+	public static void store(RouterGraph graph, String key, RoutingTable table) {
+		File file = file(graph, key);
+		if(file == null)
+			return;
+		
+		try {
+			file.getParentFile().mkdirs();
+			File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(MAGIC);
+			table.write(out);
+			out.close();
+			if(!tmp.renameTo(file)) {
+				tmp.delete();
+				System.err.println("Warning: could not write routing cache file "+file);
+			}
+		} catch (IOException e) {
+			System.err.println("Warning: could not write routing cache file "+file);
+		}
+	}
+	
+	/*
+	 * The cache file for a table, named by a hash of the parameters, any key 
+	 * the routing adds and the graph, or null if caching is off
+	 */
+	private static File file(RouterGraph graph, String key) {
+		if(Config.routingCache().length() == 0)
+			return null;
+		
+		// Two 64 bit hash lanes, FNV-1a over ints and a multiply-xorshift
+		long[] h = { 0xcbf29ce484222325L, 0x84222325cbf29ce4L };
+		
+		update(h, Config.topology().ordinal());
+		update(h, Config.k());
+		update(h, Config.n());
+		update(h, Double.doubleToLongBits(Config.faults()));
+		update(h, Config.graphSeed());
+		update(h, Config.routing().ordinal());
+		update(h, Config.numVCs());
+		update(h, Config.availableVCs());
+		for(int i=0; i<key.length(); i++)
+			update(h, key.charAt(i));
+		
+		for(int i=0; i<graph.numNodes(); i++) {
+			update(h, graph.endEdge(i));
+			for(int e=graph.firstEdge(i); e<graph.endEdge(i); e++) {
+				update(h, graph.port(e));
+				update(h, graph.target(e));
+				update(h, graph.delay(e));
+			}
+		}
+		
+		StringBuilder name = new StringBuilder(Config.routing().name().toLowerCase());
+		name.append('-').append(hex(h[0])).append(hex(h[1])).append(".bin");
+		return new File(Config.routingCache(), name.toString());
+	}
+	
+	private static String hex(long value) {
+		String s = Long.toHexString(value);
+		return "0000000000000000".substring(s.length()) + s;
+	}
+	
+	private static void update(long[] h, long value) {
+		update(h, (int) (value >>> 32));
+		update(h, (int) value);
+	}
+	
+	private static void update(long[] h, int value) {
+		h[0] = (h[0] ^ value) * 0x100000001b3L;
+		h[1] = (h[1] ^ value) * 0x9E3779B97F4A7C15L;
+		h[1] ^= h[1] >>> 29;
+	}
+}
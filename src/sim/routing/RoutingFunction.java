@@ -8,6 +8,11 @@ package sim.routing;
 
 public interface RoutingFunction {
 
+	/*
+	 * The output port and VC together, packed as a Route, so a header is
+	 * routed with a single call
+	 */
+	public int getRoute(int current, int inputVC, int source, int dest);
 	public int getOutputPort(int current, int inputVC, int source, int dest);
 	public int getOutputVC(int current, int inputVC, int source, int dest);
 	
@@ -6,73 +6,253 @@
  */ 
 package sim.routing;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 
+/*
+ * The routing tables of every router in the network. A router's row is held
+ * as intervals: runs of consecutive destinations leaving by the same route,
+ * stored as the first destination of each run and its packed route, and a
+ * lookup is a binary search over the runs. Rows with the same runs are held
+ * once and shared. On a torus a row is indexed by the offset of the
+ * destination from the router in each dimension rather than by its id, so
+ * the rows of routers that route alike under translation are identical and
+ * the whole network can share a single row
+ */
 public class RoutingTable {
 	
-	private Map<Integer, TableEntry> m_lookup;
+	private int               m_numNodes;
+	private int               m_k;
+	private int               m_n;
+	private Row[]             m_rows;
+	private HashMap<Row, Row> m_distinct;
 	
-	class TableEntry {
-		int port;
-		int vc;
-		
-		public TableEntry(int port, int vc) {
-			this.port = port;
-			this.vc = vc;
+	/*
+	 * A table indexed by destination id
+	 */
+	public RoutingTable(int numNodes) {
+		this(numNodes, 0, 0);
+	}
+	
+	/*
+	 * A table for a k-ary n-cube indexed by destination offset, or by 
+	 * destination id if k is 0
+	 */
+	public RoutingTable(int numNodes, int k, int n) {
+		m_numNodes = numNodes;
+		m_k = k;
+		m_n = n;
+		m_rows = new Row[numNodes];
+		m_distinct = new HashMap<Row, Row>();
+	}
+	
+	public int getRoute(int current, int dest) {
+		Row row = m_rows[current];
+		int route = row == null ? Route.NONE : row.get(index(current, dest));
+		if(route == Route.NONE)
+			System.err.println("Could not find routing table entry for dest "+dest);
+		return route;
+	}
+	
+	/*
+	 * Set the row of a router from its packed routes, indexed by destination. 
+	 * Routers may set their rows concurrently
+	 */
+	public void setRow(int current, int[] routes) {
+		int numRuns = 0;
+		int last = Route.NONE;
+		for(int i=0; i<m_numNodes; i++) {
+			int route = routes[dest(current, i)];
+			if(i == 0 || route != last)
+				numRuns++;
+			last = route;
 		}
 		
-		public String toString() {
-			return "["+port+":"+vc+"]\n";
+		Row row = new Row(numRuns);
+		numRuns = 0;
+		for(int i=0; i<m_numNodes; i++) {
+			int route = routes[dest(current, i)];
+			if(i == 0 || route != last) {
+				row.starts[numRuns] = i;
+				row.routes[numRuns++] = route;
+			}
+			last = route;
 		}
+		m_rows[current] = intern(row);
 	}
 	
-	public RoutingTable() {
-		m_lookup = new HashMap<Integer, TableEntry>();
+	private Row intern(Row row) {
+		synchronized(m_distinct) {
+			Row shared = m_distinct.get(row);
+			if(shared != null)
+				return shared;
+			m_distinct.put(row, row);
+			return row;
+		}
 	}
 	
-	public int getPort(int dest) {
-		TableEntry e = (TableEntry) m_lookup.get(dest);
-		if(e == null) {
-			System.err.println("(dest) Could not find routing table entry for dest "+dest);
-			return -1;
+	/*
+	 * The position of a destination in the row of the current router
+	 */
+	private int index(int current, int dest) {
+		if(m_k == 0)
+			return dest;
+		int index = 0;
+		for(int d=0, kToD=1; d<m_n; d++, kToD*=m_k) {
+			int offset = (dest / kToD) % m_k - (current / kToD) % m_k;
+			index += (offset < 0 ? offset + m_k : offset) * kToD;
 		}
-		return e.port;
+		return index;
+	}
+	
+	/*
+	 * The destination at a position in the row of the current router
+	 */
+	private int dest(int current, int index) {
+		if(m_k == 0)
+			return index;
+		int dest = 0;
+		for(int d=0, kToD=1; d<m_n; d++, kToD*=m_k)
+			dest += (((current / kToD) + (index / kToD)) % m_k) * kToD;
+		return dest;
 	}
 	
-	public int getVC(int dest) {
-		TableEntry e = (TableEntry) m_lookup.get(dest);
-		if(e == null) {
-			System.err.println("(vc) Could not find routing table entry for dest "+dest);
-			return -1;
+	/*
+	 * Write the distinct rows followed by the row of each router
+	 */
+	void write(DataOutputStream out) throws IOException {
+		HashMap<Row, Integer> ids = new HashMap<Row, Integer>();
+		Row[] distinct = m_distinct.keySet().toArray(new Row[0]);
+		out.writeInt(m_numNodes);
+		out.writeInt(m_k);
+		out.writeInt(distinct.length);
+		for(int r=0; r<distinct.length; r++) {
+			ids.put(distinct[r], r);
+			out.writeInt(distinct[r].starts.length);
+			for(int start : distinct[r].starts)
+				out.writeInt(start);
+			for(int route : distinct[r].routes)
+				out.writeInt(route);
 		}
-		return e.vc;
+		for(Row row : m_rows)
+			out.writeInt(row == null ? -1 : ids.get(row));
 	}
 	
-	public void add(int dest, int port, int vc) {
-		if(!m_lookup.containsKey(dest)) {
-			m_lookup.put(dest, new TableEntry(port, vc));
-		} else {
-			TableEntry e = m_lookup.get(dest);
-			
-			if(e.port != port)
-				System.err.println("Error: port mistmatch: "+e.port+" "+port);
+	/*
+	 * Read the rows written by write(), returning false if they do not fit
+	 * this table. The whole file is checked before any row is taken, so a
+	 * bad one leaves the table as it was
+	 */
+	boolean read(IntBuffer in) {
+		if(in.remaining() < 3 || in.get() != m_numNodes || in.get() != m_k)
+			return false;
+		int numDistinct = in.get();
+		if(numDistinct < 0 || numDistinct > in.remaining() / 3)
+			return false;
+		Row[] distinct = new Row[numDistinct];
+		for(int r=0; r<numDistinct; r++) {
+			int numRuns = in.remaining() > 0 ? in.get() : -1;
+			if(numRuns < 1 || numRuns > m_numNodes || in.remaining() < 2 * numRuns)
+				return false;
+			distinct[r] = new Row(numRuns);
+			in.get(distinct[r].starts);
+			in.get(distinct[r].routes);
 			
-			if(vc != e.vc)
-				System.err.println("Error: table already contains target, e.vc="
-						+e.vc+" new vc="+vc);
-			e.vc = vc;
-			e.port = port;
+			// Runs start at the first position and strictly increase
+			for(int i=0; i<numRuns; i++) {
+				int start = distinct[r].starts[i];
+				if(start < 0 || start >= m_numNodes || (i == 0 ? start != 0 : 
+						start <= distinct[r].starts[i-1]))
+					return false;
+			}
 		}
+		if(in.remaining() != m_numNodes)
+			return false;
+		int[] ids = new int[m_numNodes];
+		in.get(ids);
+		for(int id : ids) {
+			if(id < -1 || id >= numDistinct)
+				return false;
+		}
+		for(int i=0; i<m_numNodes; i++)
+			m_rows[i] = ids[i] < 0 ? null : intern(distinct[ids[i]]);
+		return true;
+	}
+	
+	/*
+	 * Table memory: the runs of the distinct rows and a row reference per router
+	 */
+	public long memoryBytes() {
+		long bytes = 4L * m_numNodes;
+		for(Row row : m_distinct.keySet())
+			bytes += 8L * row.starts.length;
+		return bytes;
 	}
 	
-	public String toString() {
+	public int numRuns() {
+		int runs = 0;
+		for(Row row : m_distinct.keySet())
+			runs += row.starts.length;
+		return runs;
+	}
+	
+	public String summary() {
+		return "Routing tables: "+m_distinct.size()+" distinct rows of "+m_numNodes+", "+numRuns()+
+				" runs, "+(memoryBytes() / 1024)+" KB ("+(4L * m_numNodes * m_numNodes / 1024)+" KB uncompressed)";
+	}
+	
+	/*
+	 * The table of a single router
+	 */
+	public String toString(int current) {
 		String s = "Dest\tPort\n\n";
-		Set<Integer> keys = m_lookup.keySet();
-		for(Integer dest : keys) {
-			s += dest+"\t"+m_lookup.get(dest);
+		Row row = m_rows[current];
+		for(int dest=0; row!=null && dest<m_numNodes; dest++) {
+			int e = row.get(index(current, dest));
+			if(e != Route.NONE)
+				s += dest+"\t["+Route.port(e)+":"+Route.vc(e)+"]\n";
 		}
 		return s;
 	}
+	
+	public int numDistinct() { return m_distinct.size(); }
+	
+	/*
+	 * The runs of one row: the first position of each run and its route
+	 */
+	private static final class Row {
+		
+		final int[] starts;
+		final int[] routes;
+		
+		Row(int numRuns) {
+			starts = new int[numRuns];
+			routes = new int[numRuns];
+		}
+		
+		int get(int index) {
+			int lo = 0;
+			int hi = starts.length - 1;
+			while(lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if(starts[mid] <= index)
+					lo = mid;
+				else
+					hi = mid - 1;
+			}
+			return routes[lo];
+		}
+		
+		public int hashCode() {
+			return 31 * Arrays.hashCode(starts) + Arrays.hashCode(routes);
+		}
+		
+		public boolean equals(Object o) {
+			return o instanceof Row && Arrays.equals(starts, ((Row) o).starts) && 
+					Arrays.equals(routes, ((Row) o).routes);
+		}
+	}
 }
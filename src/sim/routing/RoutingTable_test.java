@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.routing;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.junit.Test;
+
+public class RoutingTable_test {
+
+	@Test
+	public void testPackRoute() {
+		int[] values = { -1, 0, 1, 7, 1000 };
+		for(int port : values) {
+			for(int vc : values) {
+				int route = Route.pack(port, vc);
+				assertEquals(port, Route.port(route));
+				assertEquals(vc, Route.vc(route));
+			}
+		}
+		assertEquals(Route.NONE, Route.pack(-1, -1));
+	}
+
+	@Test
+	public void testLookup() {
+		RoutingTable t = new RoutingTable(4);
+		t.setRow(1, new int[] { Route.pack(0, -1), Route.NONE, Route.pack(0, -1), Route.pack(2, -1) });
+		t.setRow(3, new int[] { Route.pack(0, 5), Route.pack(0, 5), Route.pack(1, 5), Route.NONE });
+		assertEquals(2, Route.port(t.getRoute(1, 3)));
+		assertEquals(-1, Route.vc(t.getRoute(1, 3)));
+		assertEquals(0, Route.port(t.getRoute(1, 2)));
+		assertEquals(0, Route.port(t.getRoute(3, 1)));
+		assertEquals(5, Route.vc(t.getRoute(3, 1)));
+		assertEquals(1, Route.port(t.getRoute(3, 2)));
+		assertEquals(4 + 3, t.numRuns());
+	}
+
+	@Test
+	public void testIdenticalRowsShared() {
+		RoutingTable t = new RoutingTable(3);
+		int[] routes = { Route.pack(1, -1), Route.pack(1, -1), Route.pack(2, -1) };
+		t.setRow(0, routes);
+		t.setRow(1, routes);
+		t.setRow(2, new int[] { Route.pack(0, -1), Route.pack(1, -1), Route.pack(2, -1) });
+		assertEquals(2, t.numDistinct());
+		assertEquals(2 + 3, t.numRuns());
+	}
+
+	@Test
+	public void testTorusRowsSharedByOffset() {
+		// A 4-ary 2-cube routing to the lower numbered neighbour in 
+		// dimension 0 when it is the destination, else on port 3
+		int k = 4;
+		RoutingTable t = new RoutingTable(k * k, k, 2);
+		int[] routes = new int[k * k];
+		for(int i=0; i<k*k; i++) {
+			int left = (i / k) * k + (i % k + k - 1) % k;
+			for(int j=0; j<k*k; j++)
+				routes[j] = j == i ? Route.NONE : Route.pack(j == left ? 0 : 3, -1);
+			t.setRow(i, routes);
+		}
+		assertEquals(1, t.numDistinct());
+		for(int i=0; i<k*k; i++) {
+			int left = (i / k) * k + (i % k + k - 1) % k;
+			for(int j=0; j<k*k; j++)
+				if(j != i)
+					assertEquals(j == left ? 0 : 3, Route.port(t.getRoute(i, j)));
+		}
+	}
+
+	@Test
+	public void testReadRejectsBadFile() throws IOException {
+		RoutingTable t = new RoutingTable(3);
+		int[] routes = { Route.pack(1, -1), Route.pack(1, -1), Route.pack(2, -1) };
+		t.setRow(0, routes);
+		t.setRow(1, routes);
+		t.setRow(2, new int[] { Route.pack(0, -1), Route.pack(1, -1), Route.pack(2, -1) });
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		t.write(new DataOutputStream(bytes));
+		IntBuffer good = ByteBuffer.wrap(bytes.toByteArray()).asIntBuffer();
+
+		RoutingTable r = new RoutingTable(3);
+		assertTrue(r.read(good.duplicate()));
+		assertEquals(2, r.numDistinct());
+		assertEquals(2, Route.port(r.getRoute(2, 2)));
+
+		// A negative number of rows, and a row id below -1
+		int[] bad = new int[good.remaining()];
+		good.duplicate().get(bad);
+		bad[2] = -1;
+		r = new RoutingTable(3);
+		assertFalse(r.read(IntBuffer.wrap(bad)));
+		assertEquals(0, r.numDistinct());
+
+		good.duplicate().get(bad);
+		bad[bad.length - 1] = -2;
+		assertFalse(r.read(IntBuffer.wrap(bad)));
+		assertEquals(0, r.numDistinct());
+	}
+}
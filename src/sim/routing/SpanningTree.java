@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.routing;
+
+import java.util.Arrays;
+
+/*
+ * A spanning tree of the routers held as parent and child arrays. Nodes are 
+ * numbered in depth first order, so the subtree of a node is the interval 
+ * [entry, exit) of numbers and the path from i to j goes down towards the 
+ * child whose interval holds j, or up to the parent if none does. Each tree 
+ * edge also records the lowest output port that follows it
+ */
+public class SpanningTree {
+
+	private int   m_root;
+	private int[] m_parent;
+	private int[] m_childOffsets;
+	private int[] m_children;
+	private int[] m_entry;
+	private int[] m_exit;
+	private int[] m_order;
+	private int[] m_upPort;
+	private int[] m_downPort;
+	
+	/*
+	 * parent[i] is the parent of node i, root is its own parent and nodes the
+	 * tree does not reach have parent -1
+	 */
+	public SpanningTree(RouterGraph graph, int root, int[] parent) {
+		int n = parent.length;
+		m_root = root;
+		m_parent = parent;
+		
+		// Children, grouped by parent in node order
+		m_childOffsets = new int[n + 1];
+		for(int i=0; i<n; i++)
+			if(parent[i] != -1 && i != root)
+				m_childOffsets[parent[i] + 1]++;
+		for(int i=0; i<n; i++)
+			m_childOffsets[i + 1] += m_childOffsets[i];
+		m_children = new int[m_childOffsets[n]];
+		int[] fill = new int[n];
+		for(int i=0; i<n; i++)
+			if(parent[i] != -1 && i != root)
+				m_children[m_childOffsets[parent[i]] + fill[parent[i]]++] = i;
+		
+		// Number the nodes depth first, without recursion
+		m_entry = new int[n];
+		m_exit  = new int[n];
+		m_order = new int[n];
+		Arrays.fill(m_entry, -1);
+		int[] stack = new int[n];
+		int[] next  = new int[n];
+		int count = 0;
+		int depth = 0;
+		stack[0] = root;
+		next[root] = m_childOffsets[root];
+		m_order[count] = root;
+		m_entry[root] = count++;
+		while(depth >= 0) {
+			int u = stack[depth];
+			if(next[u] < m_childOffsets[u + 1]) {
+				int c = m_children[next[u]++];
+				next[c] = m_childOffsets[c];
+				m_order[count] = c;
+				m_entry[c] = count++;
+				stack[++depth] = c;
+			} else {
+				m_exit[u] = count;
+				depth--;
+			}
+		}
+		
+		// The lowest port along each tree edge, in both directions
+		m_upPort   = new int[n];
+		m_downPort = new int[n];
+		Arrays.fill(m_upPort, -1);
+		Arrays.fill(m_downPort, -1);
+		for(int i=0; i<n; i++) {
+			for(int e=graph.firstEdge(i); e<graph.endEdge(i); e++) {
+				int v = graph.target(e);
+				if(v == parent[i] && i != root && m_upPort[i] == -1)
+					m_upPort[i] = graph.port(e);
+				if(parent[v] == i && v != root && m_downPort[v] == -1)
+					m_downPort[v] = graph.port(e);
+			}
+		}
+	}
+	
+	/*
+	 * Fill ports[j] with the output port at node i on the tree path to each 
+	 * node j, or -1 where there is no path
+	 */
+	public void routesFrom(int i, int[] ports) {
+		if(m_entry[i] == -1) {
+			Arrays.fill(ports, -1);
+			return;
+		}
+		
+		// Everything outside the subtree is reached through the parent
+		for(int j=0; j<ports.length; j++)
+			ports[j] = m_entry[j] == -1 ? -1 : m_upPort[i];
+		
+		// And the subtree of each child through that child
+		for(int c=m_childOffsets[i]; c<m_childOffsets[i + 1]; c++) {
+			int child = m_children[c];
+			for(int k=m_entry[child]; k<m_exit[child]; k++)
+				ports[m_order[k]] = m_downPort[child];
+		}
+		ports[i] = -1;
+	}
+	
+	public int     root()             { return m_root; }
+	public int     parent(int i)      { return m_parent[i]; }
+}
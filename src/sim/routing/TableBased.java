@@ -8,32 +8,39 @@ package sim.routing;
 
 /*
  * Base class for a table-based routing function, provides a simple output port 
- * and vc lookup for each destination node. 
+ * and vc lookup for each destination node in the router's rows of a table
+ * shared by the network. 
  */
 public class TableBased implements RoutingFunction {
 
 	private RoutingTable m_table;
+	private int          m_nodeId;
 	
-	public TableBased() {
-		m_table = new RoutingTable();
+	public TableBased(RoutingTable table, int nodeId) {
+		m_table = table;
+		m_nodeId = nodeId;
 	}
 	
-	public int getOutputPort(int current, int inputVC, int source, int dest) {
+	public int getRoute(int current, int inputVC, int source, int dest) {
 		//System.out.println("Current node: "+current+" destination "+dest);
-		return m_table.getPort(dest);
+		return m_table.getRoute(current, dest);
+	}
+	
+	public int getOutputPort(int current, int inputVC, int source, int dest) {
+		return Route.port(m_table.getRoute(current, dest));
 	}
 	
 	public int getOutputVC(int current, int inputVC, int source, int dest) {
-		return m_table.getVC(dest);
+		return Route.vc(m_table.getRoute(current, dest));
 	}
 	
-	public void addTableEntry(int dest, int port, int vc) {
-		m_table.add(dest, port, vc);
-		//System.out.println("added table entry for dest "+dest+" on ["+port+":"+vc+"]");
-		
-		//if(vc > Config.numLayers()-1) 
-		//	System.out.println("VC EXEEDS LAYERS!");
+	/*
+	 * Set the router's packed route to each destination, Route.NONE where 
+	 * there is none
+	 */
+	public void setRoutes(int[] routes) {
+		m_table.setRow(m_nodeId, routes);
 	}
 	
-	public String toString() { return m_table+""; }	
+	public String toString() { return m_table.toString(m_nodeId); }	
 }
\ No newline at end of file
@@ -6,73 +6,93 @@
  */ 
 package sim.routing;
 
-import java.util.LinkedList;
-
 import sim.Simulator;
 import sim.components.Network;
 import sim.components.Router;
-import sim.components.RouterLink;
-import sim.graphs.Directed;
 
 public class UpDown extends TableBased {
 	
-	public UpDown() {
-		super();
+	public UpDown(RoutingTable table, int nodeId) {
+		super(table, nodeId);
 	}
 	
 	public static void configNetwork(Network network) {
-		Directed st = BFS(network);
-		
+		long start = System.currentTimeMillis();
+		RouterGraph graph = new RouterGraph(network);
 		Router[] routers = network.getRouters();
+		RoutingTable table = new RoutingTable(routers.length);
+		UpDown[] upDowns = new UpDown[routers.length];
 		
-		// Fill the routing tables according to shortest paths in the spanning tree
+		for(int i=0; i<routers.length; i++) {
+			upDowns[i] = new UpDown(table, i);
+			routers[i].setRoutingFn(upDowns[i]);
+		}
+		
+		// The root is drawn whether or not the tables are cached, so the 
+		// random numbers seen by the rest of the run are the same
+		int root = Simulator.getRandInt(graph.numNodes());
+		//System.out.println("Spanning tree root at node "+root);
+		String key = "root="+root;
+		
+		if(RoutingCache.load(graph, key, table)) {
+			System.out.println("Loaded routes from cache in "+(System.currentTimeMillis() - start)+" ms");
+			System.out.println(table.summary());
+			return;
+		}
+		
+		SpanningTree st = BFS(graph, root);
+		int[] ports = new int[routers.length];
+		int[] routes = new int[routers.length];
+		
+		// Fill the routing tables according to paths in the spanning tree
 		for(int i=0; i<routers.length; i++) {
 			
-			UpDown upDown = new UpDown();
-			routers[i].setRoutingFn(upDown);
-			
+			st.routesFrom(i, ports);
 			for(int j=0; j<routers.length; j++) {
+				routes[j] = Route.NONE;
 				if(i != j) {
-					int nextNode = st.getNextNode(i, j);
-					if(nextNode == -1) {
+					if(ports[j] == -1) {
 						System.err.println("Error: no path between nodes "+i+" and "+j);
 					} else {
-						int outputPort = routers[i].getOutputPort(nextNode);
-						upDown.addTableEntry(j, outputPort, -1);
+						routes[j] = Route.pack(ports[j], -1);
 					}
 				}
 			}
+			upDowns[i].setRoutes(routes);
 		}
+		RoutingCache.store(graph, key, table);
+		
+		System.out.println("Computed up*/down* routes from "+routers.length+" routers in "+
+				(System.currentTimeMillis() - start)+" ms");
+		System.out.println(table.summary());
 	}
 	
 	/*
-	 * Perform a breadth first search of the graph to construct a spanning tree
+	 * Search the graph from the root to construct a spanning tree. 
+	 * Neighbours are visited in output port order
 	 */
-	public static Directed BFS(Network network) {
+	public static SpanningTree BFS(RouterGraph graph, int start) {
 		
-		Router[] routers = network.getRouters();
-		
-		int[] parent = new int[network.numNodes()];
+		int[] parent = new int[graph.numNodes()];
 		for(int i=0; i<parent.length; i++)
 			parent[i] = -1;
 		
-		LinkedList<Integer> next = new LinkedList<Integer>();
-		int start = Simulator.getRandInt(network.numNodes());
-		next.addLast(start);
+		int[] next = new int[graph.numNodes()];
+		int top = 0;
+		next[top++] = start;
 		parent[start] = start;
-		//System.out.println("Spanning tree root at node "+start);
 		   
-		while (!next.isEmpty()) {
-			int current = next.poll();
+		while (top > 0) {
+			int current = next[--top];
 
-		    // Look through neighbors, if unvisited add it to the queue
-		    for(RouterLink outLink : network.outgoingEdgesOf(routers[current])) {
-		    	int neighbour = outLink.getTo().getNodeId();
+		    // Look through neighbors, if unvisited add it to the stack
+		    for(int e=graph.firstEdge(current); e<graph.endEdge(current); e++) {
+		    	int neighbour = graph.target(e);
 		    	//System.out.println(current+" -> "+neighbour);
 		        
 		    	if (parent[neighbour] == -1) {
 		        	parent[neighbour] = current;
-		        	next.push(neighbour);
+		        	next[top++] = neighbour;
 		        }
 		    }
 		}
@@ -80,20 +100,7 @@ public class UpDown extends TableBased {
 		//for(int i=0; i<parent.length; i++)
 		//	System.out.println(i+" parent "+parent[i]);
 		
-		Directed st = new Directed(network.numNodes());
-
-		// Add edges except root node's self edge
-		for(int i=0; i<parent.length; i++) {
-			if(i != parent[i]) {
-				st.addEdge(i, parent[i]);
-				st.addEdge(parent[i], i);
-			}
-		}
-		
-		//st.writeDot("st.dot");
-		//Visualise.createDotImage("st.dot", "st.ps");
-		
-		return st;
+		return new SpanningTree(graph, start, parent);
 	}
 
 }
\ No newline at end of file
@@ -7,6 +7,7 @@
 
 package sim.routing;
 
+import sim.Config;
 import sim.components.Network;
 import sim.components.Router;
 import sim.topology.Tring;
@@ -16,12 +17,27 @@ public class VGra extends Gra implements RoutingFunction {
 	private int ch_ring = 0;
 	private int ch_inter_ring = 2;
 	
+	// The VCs used: two within rings and two between them
+	public static final int NUM_VCS = 4;
+	
+	// Tring coordinates and ring neighbours of every node
+	private int[] level;
+	private int[] ring;
+	private int[] r_nid;
+	private int[] left;
+	private int[] right;
+	
+	// Whether the edge between two nodes within a ring is the dateline,
+	// indexed by c_rnid*k + d_rnid
+	private boolean[] datelines;
+	
 	public VGra(){
 		// Call constructor. Edge 0 -> 1 is my dateline.
 		super(0, 1);
 		
 		// Set VC to true.
 		super.SetVC(true);
+		LoadCoordinates();
 	}
 	
 	// Only for testing purposes.
@@ -31,41 +47,54 @@ public class VGra extends Gra implements RoutingFunction {
 		
 		// Set VC to true.
 		super.SetVC(true);
+		LoadCoordinates();
 	}
 	
-	private boolean CheckDatelines(int c_rnid, int d_rnid){
-		
-		boolean[][] Datelines = GetPaths();
-		
-		if ((Datelines[c_rnid][d_rnid] == false) ||
-				(Datelines[d_rnid][c_rnid] == false))
-			return true;
-		else
-			return false;
+	private void LoadCoordinates(){
+		level = Tring.GetLevels();
+		ring  = Tring.GetRings();
+		r_nid = Tring.GetNodesWithinRing();
+		left  = Tring.GetLeftNodes();
+		right = Tring.GetRightNodes();
 		
+		int k = GetK();
+		boolean[][] Paths = GetPaths();
+		datelines = new boolean[k*k];
+		for (int c_rnid=0; c_rnid<k; c_rnid++)
+			for (int d_rnid=0; d_rnid<k; d_rnid++)
+				datelines[c_rnid*k + d_rnid] = (Paths[c_rnid][d_rnid] == false) ||
+						(Paths[d_rnid][c_rnid] == false);
+	}
+	
+	private boolean CheckDatelines(int c_rnid, int d_rnid){
+		return datelines[c_rnid*GetK() + d_rnid];
+	}
+	
+	@Override
+	public int getRoute(int current, int inputVC, int source, int dest) {
+		int output_port = super.getOutputPort(current, inputVC, source, dest);
+		return Route.pack(output_port, outputVC(current, inputVC, dest, output_port));
 	}
 	
 	@Override
 	public int getOutputVC(int current, int inputVC, int source, int dest) {
+		return outputVC(current, inputVC, dest, super.getOutputPort(current, inputVC, source, dest));
+	}
+	
+	/*
+	 * The VC for a route that leaves on output_port
+	 */
+	private int outputVC(int current, int inputVC, int dest, int output_port) {
 		
 		// Get Tags for source node
-		//int c_lev	= Tring.LevelOfNode		(current, super.GetK());
-		//int c_rid 	= Tring.RingOfNode		(current, super.GetK());
-		int c_rnid  = Tring.NodeWithinRing	(current, super.GetK());
+		int c_rnid  = r_nid	[current];
 		
 		// Get Tags for destination node
-		//int d_lev	= Tring.LevelOfNode		(dest, super.GetK());
-		//int d_rid 	= Tring.RingOfNode		(dest, super.GetK());
-		int d_rnid  = Tring.NodeWithinRing	(dest, super.GetK());
-
-		int k = super.GetK();
-		//int n = super.GetN();
-		
-		int output_port = super.getOutputPort(current, inputVC, source, dest);
+		int d_rnid  = r_nid	[dest];
 		
 		if (output_port == Tring.GetLeftPort() || output_port == Tring.GetRightPort()){
 			// I'm staying in the ring and destination is within ring.
-			if (Tring.IsNodeInRing(dest, current, k)){
+			if (level[dest] == level[current] && ring[dest] == ring[current]){
 				// You are in the same ring. Return same input VC+1 only
 				// if you cross the dateline.
 				if (CheckDatelines(c_rnid, d_rnid))
@@ -76,9 +105,7 @@ public class VGra extends Gra implements RoutingFunction {
 			else{
 				// I'm going outside the ring and destination is outside ring.
 				if (output_port == Tring.GetLeftPort()){
-					int leftnode = Tring.GetLeftNode(current, k);
-					
-					int l_rnid = Tring.NodeWithinRing(leftnode, k);
+					int l_rnid = r_nid[left[current]];
 					
 					if (CheckDatelines(c_rnid, l_rnid))
 						return ch_inter_ring+1;
@@ -88,9 +115,7 @@ public class VGra extends Gra implements RoutingFunction {
 				}
 				// Must be right port.
 				else{
-					int rightnode = Tring.GetRightNode(current, k);
-						
-					int r_rnid = Tring.NodeWithinRing(rightnode, k);
+					int r_rnid = r_nid[right[current]];
 						
 					if (CheckDatelines(c_rnid, r_rnid))
 						return ch_inter_ring+1;
@@ -105,9 +130,17 @@ public class VGra extends Gra implements RoutingFunction {
 		}
 	}
 	
+	/*
+	 * As with Gra, one instance is shared by every router
+	 */
 	public static void configNetwork(Network network){
+		if(Config.numVCs() < NUM_VCS) {
+			System.err.println("Error: VGra routing needs num_vcs of at least "+NUM_VCS);
+			System.exit(1);
+		}
+		VGra vgra = new VGra();
 		for (Router r : network.getRouters()){
-			r.setRoutingFn(new VGra());
+			r.setRoutingFn(vgra);
 		}
 	}
 }
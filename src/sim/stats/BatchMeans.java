@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.stats;
+
+/*
+ * Running statistics of a series of observations in constant memory. The
+ * mean and variance of the observations are kept online with Welford's
+ * method. For confidence intervals the observations are also grouped into
+ * at most BATCHES batches: when they are all full, adjacent batches are
+ * merged and the batch size doubles, so however long the series the batches
+ * stay few and their means become closer to independent. The mean and
+ * variance of the completed batch means are kept as batches complete, so a
+ * confidence interval can be had at any time
+ */
+public class BatchMeans {
+
+	private static final int BATCHES = 32;
+
+	// Two-sided 95% quantiles of Student's t for 1 to 30 degrees of freedom
+	private static final double[] T_975 = {
+		12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+		 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+		 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+	// Every observation
+	private long     m_count;
+	private double   m_mean;
+	private double   m_m2;
+
+	// Batches: the sums of the completed batches and of the current one
+	private double[] m_sums;
+	private int      m_numBatches;
+	private int      m_batchSize;
+	private double   m_current;
+	private int      m_currentCount;
+
+	// Completed batch means
+	private double   m_batchMean;
+	private double   m_batchM2;
+
+	public BatchMeans() {
+		m_sums = new double[BATCHES];
+		clear();
+	}
+
+	public void add(double x) {
+		m_count++;
+		double delta = x - m_mean;
+		m_mean += delta / m_count;
+		m_m2 += delta * (x - m_mean);
+
+		m_current += x;
+		m_currentCount++;
+		if(m_currentCount == m_batchSize) {
+			m_sums[m_numBatches++] = m_current;
+			addBatchMean(m_current / m_batchSize);
+			m_current = 0;
+			m_currentCount = 0;
+			if(m_numBatches == BATCHES)
+				merge();
+		}
+	}
+
+	/*
+	 * Merge adjacent pairs of batches, doubling the batch size
+	 */
+	private void merge() {
+		m_numBatches = BATCHES / 2;
+		m_batchSize *= 2;
+		m_batchMean = 0;
+		m_batchM2 = 0;
+		for(int i=0; i<m_numBatches; i++) {
+			m_sums[i] = m_sums[2*i] + m_sums[2*i+1];
+			addBatchMean(m_sums[i] / m_batchSize, i + 1);
+		}
+	}
+
+	private void addBatchMean(double mean) {
+		addBatchMean(mean, m_numBatches);
+	}
+
+	private void addBatchMean(double mean, int n) {
+		double delta = mean - m_batchMean;
+		m_batchMean += delta / n;
+		m_batchM2 += delta * (mean - m_batchMean);
+	}
+
+	public void clear() {
+		m_count = 0;
+		m_mean = 0;
+		m_m2 = 0;
+		m_numBatches = 0;
+		m_batchSize = 1;
+		m_current = 0;
+		m_currentCount = 0;
+		m_batchMean = 0;
+		m_batchM2 = 0;
+	}
+
+	/*
+	 * Half the width of the 95% confidence interval of the mean, from the
+	 * completed batch means, or infinity with fewer than two batches
+	 */
+	public double halfWidth() {
+		if(m_numBatches < 2)
+			return Double.POSITIVE_INFINITY;
+		return tQuantile(m_numBatches - 1) * Math.sqrt(batchVariance() / m_numBatches);
+	}
+
+	/*
+	 * The 97.5% quantile of Student's t distribution, from a table for small
+	 * degrees of freedom and a Cornish-Fisher expansion about the normal
+	 * quantile otherwise
+	 */
+	public static double tQuantile(int df) {
+		if(df < 1)
+			return Double.POSITIVE_INFINITY;
+		if(df <= T_975.length)
+			return T_975[df - 1];
+		double z = 1.959964;
+		double z3 = z * z * z;
+		double z5 = z3 * z * z;
+		return z + (z3 + z) / (4.0 * df) + (5*z5 + 16*z3 + 3*z) / (96.0 * df * df);
+	}
+
+	public long   count()         { return m_count; }
+	public double mean()          { return m_mean; }
+	public double variance()      { return m_count < 2 ? 0 : m_m2 / (m_count - 1); }
+	public double stdDev()        { return Math.sqrt(variance()); }
+	public int    numBatches()    { return m_numBatches; }
+	public int    batchSize()     { return m_batchSize; }
+	public double batchMean()     { return m_batchMean; }
+	public double batchVariance() { return m_numBatches < 2 ? 0 : m_batchM2 / (m_numBatches - 1); }
+}
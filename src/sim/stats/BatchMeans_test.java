@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BatchMeans_test {
+
+	@Test
+	public void testMeanAndVariance() {
+		BatchMeans b = new BatchMeans();
+		double[] x = { 2, 4, 4, 4, 5, 5, 7, 9 };
+		for(double v : x)
+			b.add(v);
+		assertEquals(8, b.count());
+		assertEquals(5.0, b.mean(), 1e-12);
+		assertEquals(32.0 / 7, b.variance(), 1e-12);
+		assertEquals(8, b.numBatches());
+		assertEquals(5.0, b.batchMean(), 1e-12);
+		assertEquals(32.0 / 7, b.batchVariance(), 1e-12);
+	}
+
+	@Test
+	public void testBatchesMerge() {
+		BatchMeans b = new BatchMeans();
+		for(int i=0; i<32; i++)
+			b.add(i);
+		assertEquals(16, b.numBatches());
+		assertEquals(2, b.batchSize());
+		assertEquals(15.5, b.batchMean(), 1e-12);
+
+		// Batch means 0.5, 2.5, ... 30.5 have variance 4 * var(0..15)
+		assertEquals(4 * 16 * 17 / 12.0, b.batchVariance(), 1e-9);
+
+		for(int i=32; i<10000; i++)
+			b.add(i);
+		assertTrue(b.numBatches() >= 16 && b.numBatches() < 32);
+		assertEquals(4999.5, b.mean(), 1e-9);
+	}
+
+	@Test
+	public void testHalfWidth() {
+		BatchMeans b = new BatchMeans();
+		assertTrue(Double.isInfinite(b.halfWidth()));
+		b.add(1);
+		assertTrue(Double.isInfinite(b.halfWidth()));
+		b.add(3);
+		assertEquals(12.706 * Math.sqrt(2.0 / 2), b.halfWidth(), 1e-9);
+		b.clear();
+		for(int i=0; i<1000; i++)
+			b.add(7);
+		assertEquals(0, b.halfWidth(), 1e-12);
+	}
+
+	@Test
+	public void testTQuantile() {
+		assertEquals(12.706, BatchMeans.tQuantile(1), 1e-9);
+		assertEquals(2.042, BatchMeans.tQuantile(30), 1e-9);
+		assertEquals(2.021, BatchMeans.tQuantile(40), 1e-3);
+		assertEquals(1.984, BatchMeans.tQuantile(100), 1e-3);
+	}
+}
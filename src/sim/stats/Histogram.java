@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.stats;
+
+import java.util.Arrays;
+
+/*
+ * A log-linear histogram of non-negative values. Values below 2^(SUB_BITS+1)
+ * have a bucket each; above that every power of two is split into 2^SUB_BITS
+ * buckets, so a value is held to within 1/2^SUB_BITS of itself. The buckets
+ * are a fixed array covering every long, recording is O(1) and allocates
+ * nothing, and histograms of samples merge into histograms of runs by adding
+ * counts
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB      = 1 << SUB_BITS;
+	private static final int BUCKETS  = (64 - SUB_BITS + 1) * SUB;
+
+	private long[] m_counts;
+	private long   m_total;
+	private long   m_min;
+	private long   m_max;
+	private double m_sum;
+
+	public Histogram() {
+		m_counts = new long[BUCKETS];
+		clear();
+	}
+
+	public void record(long value) {
+		if(value < 0)
+			value = 0;
+		m_counts[index(value)]++;
+		m_total++;
+		m_sum += value;
+		if(value < m_min)
+			m_min = value;
+		if(value > m_max)
+			m_max = value;
+	}
+
+	/*
+	 * Add the counts of another histogram to this one
+	 */
+	public void merge(Histogram h) {
+		if(h.m_total == 0)
+			return;
+		for(int i=0; i<BUCKETS; i++)
+			m_counts[i] += h.m_counts[i];
+		m_total += h.m_total;
+		m_sum += h.m_sum;
+		m_min = Math.min(m_min, h.m_min);
+		m_max = Math.max(m_max, h.m_max);
+	}
+
+	public void clear() {
+		Arrays.fill(m_counts, 0);
+		m_total = 0;
+		m_sum = 0;
+		m_min = Long.MAX_VALUE;
+		m_max = 0;
+	}
+
+	/*
+	 * The smallest value that p percent of the recorded values are no
+	 * greater than, to the resolution of the buckets, or 0 if empty
+	 */
+	public long percentile(double p) {
+		if(m_total == 0)
+			return 0;
+		long rank = (long) Math.ceil(p / 100.0 * m_total);
+		if(rank < 1)
+			rank = 1;
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += m_counts[i];
+			if(seen >= rank)
+				return Math.min(highest(i), m_max);
+		}
+		return m_max;
+	}
+
+	/*
+	 * Bucket of a value: e is the number of low bits dropped, so the value
+	 * keeps SUB_BITS+1 significant bits
+	 */
+	private static int index(long value) {
+		int e = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+		return e * SUB + (int) (value >>> e);
+	}
+
+	/*
+	 * The highest value held in a bucket
+	 */
+	private static long highest(int index) {
+		int e = Math.max(0, index / SUB - 1);
+		long low = (long) (index - e * SUB) << e;
+		return low + (1L << e) - 1;
+	}
+
+	public String percentiles() {
+		return String.format("p50 %d  p99 %d  p99.9 %d  max %d",
+				percentile(50), percentile(99), percentile(99.9), max());
+	}
+
+	public long   count() { return m_total; }
+	public long   min()   { return m_total == 0 ? 0 : m_min; }
+	public long   max()   { return m_max; }
+	public double mean()  { return m_total == 0 ? 0 : m_sum / m_total; }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class Histogram_test {
+
+	@Test
+	public void testSmallValuesExact() {
+		Histogram h = new Histogram();
+		for(int v=1; v<=50; v++)
+			h.record(v);
+		assertEquals(50, h.count());
+		assertEquals(25, h.percentile(50));
+		assertEquals(50, h.percentile(99));
+		assertEquals(50, h.percentile(100));
+		assertEquals(1, h.min());
+		assertEquals(50, h.max());
+		assertEquals(25.5, h.mean(), 1e-9);
+	}
+
+	@Test
+	public void testRelativeError() {
+		Histogram h = new Histogram();
+		long[] values = { 100, 1000, 12345, 1L << 20, 987654321L, Long.MAX_VALUE / 3 };
+		for(long v : values) {
+			h.clear();
+			h.record(v);
+			h.record(0);
+			long p = h.percentile(100);
+			assertTrue(p >= v);
+			assertTrue(p - v <= v / 32);
+			assertEquals(0, h.percentile(50));
+		}
+	}
+
+	@Test
+	public void testTail() {
+		Histogram h = new Histogram();
+		for(int i=0; i<990; i++)
+			h.record(10);
+		for(int i=0; i<10; i++)
+			h.record(5000);
+		assertEquals(10, h.percentile(99));
+		assertTrue(h.percentile(99.9) >= 5000);
+		assertEquals(5000, h.percentile(99.9));
+	}
+
+	@Test
+	public void testMerge() {
+		Histogram a = new Histogram();
+		Histogram b = new Histogram();
+		for(int v=0; v<10; v++)
+			a.record(v);
+		for(int v=10; v<20; v++)
+			b.record(v);
+		a.merge(b);
+		assertEquals(20, a.count());
+		assertEquals(0, a.min());
+		assertEquals(19, a.max());
+		assertEquals(9, a.percentile(50));
+		a.merge(new Histogram());
+		assertEquals(20, a.count());
+	}
+}
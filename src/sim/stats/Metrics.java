@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.stats;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import sim.Config;
+import sim.components.Network;
+import sim.components.Router;
+
+/*
+ * Utilisation counters for every link and router, to find where a network is
+ * congested. Each counter is a plain int array so counting is a single array
+ * increment: flits carried are indexed by link id, and credit stalls and
+ * blocked cycles by router output port and VC. A router port's slot is the
+ * router's first slot plus the port number, and a VC's slot is the port slot
+ * times the number of VCs plus the VC. Each router only counts in its own
+ * slots and links, so the parallel engine needs no synchronisation. The
+ * counters cover one sample, and are written as CSV or binary if the
+ * metrics parameter is set
+ */
+public class Metrics {
+
+	// Counters, by link id, port slot or VC slot
+	private static int[]         m_linkFlits;
+	private static int[]         m_creditStalls;
+	private static int[]         m_blocked;
+	private static int[]         m_vcAllocFails;
+
+	// Layout
+	private static int[]         m_portBase;
+	private static int           m_numVCs;
+	private static int[]         m_slotRouter;
+	private static int[]         m_slotPort;
+	private static int[]         m_linkFrom;
+	private static int[]         m_linkPort;
+
+	// Output
+	private static PrintWriter      m_csv;
+	private static DataOutputStream m_bin;
+
+	private Metrics() {}
+
+	/*
+	 * Lay out the counters for a network's routers and links
+	 */
+	public static void init(Network network) {
+		Router[] routers = network.getRouters();
+		m_numVCs = Math.max(Config.numVCs(), 1);
+
+		int maxId = 0;
+		for(Router r : routers)
+			maxId = Math.max(maxId, r.getNodeId());
+		m_portBase = new int[maxId + 1];
+
+		int numSlots = 0;
+		int maxLink = -1;
+		for(Router r : routers) {
+			m_portBase[r.getNodeId()] = numSlots;
+			numSlots += r.outDegree() + 1;
+			for(int p=0; p<r.outDegree(); p++)
+				maxLink = Math.max(maxLink, r.getOutputLink(p).getId());
+		}
+
+		m_slotRouter = new int[numSlots];
+		m_slotPort   = new int[numSlots];
+		m_linkFrom   = new int[maxLink + 1];
+		m_linkPort   = new int[maxLink + 1];
+		Arrays.fill(m_linkFrom, -1);
+		for(Router r : routers) {
+			for(int p=0; p<=r.outDegree(); p++) {
+				m_slotRouter[m_portBase[r.getNodeId()] + p] = r.getNodeId();
+				m_slotPort[m_portBase[r.getNodeId()] + p] = p;
+			}
+			for(int p=0; p<r.outDegree(); p++) {
+				m_linkFrom[r.getOutputLink(p).getId()] = r.getNodeId();
+				m_linkPort[r.getOutputLink(p).getId()] = p;
+			}
+		}
+
+		m_linkFlits    = new int[maxLink + 1];
+		m_creditStalls = new int[numSlots * m_numVCs];
+		m_blocked      = new int[numSlots * m_numVCs];
+		m_vcAllocFails = new int[numSlots];
+	}
+
+	/*
+	 * A flit was written to a link
+	 */
+	public static void linkFlit(int linkId) {
+		m_linkFlits[linkId]++;
+	}
+
+	/*
+	 * The VCs in the mask of an output port hold a flit but have no credits
+	 */
+	public static void creditStalls(int router, int port, int vcMask) {
+		int base = (m_portBase[router] + port) * m_numVCs;
+		while(vcMask != 0) {
+			m_creditStalls[base + Integer.numberOfTrailingZeros(vcMask)]++;
+			vcMask &= vcMask - 1;
+		}
+	}
+
+	/*
+	 * A flit could not move to an output VC as it still held a flit
+	 */
+	public static void blocked(int router, int port, int vc) {
+		m_blocked[(m_portBase[router] + port) * m_numVCs + vc]++;
+	}
+
+	/*
+	 * A header could not be allocated a VC on an output port
+	 */
+	public static void vcAllocFail(int router, int port) {
+		m_vcAllocFails[m_portBase[router] + port]++;
+	}
+
+	public static void clear() {
+		Arrays.fill(m_linkFlits, 0);
+		Arrays.fill(m_creditStalls, 0);
+		Arrays.fill(m_blocked, 0);
+		Arrays.fill(m_vcAllocFails, 0);
+	}
+
+	/*
+	 * Open the output file, named by the format in the metrics parameter,
+	 * if it is set
+	 */
+	public static void open(String filename) {
+		String format = Config.metrics();
+		try {
+			if(format.equals("csv")) {
+				m_csv = new PrintWriter(new BufferedWriter(new FileWriter(filename+".csv")));
+				m_csv.println("sample,counter,link,router,port,vc,count");
+			} else if(format.equals("bin")) {
+				m_bin = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename+".bin")));
+				m_bin.writeInt(m_numVCs);
+				writeArray(m_slotRouter);
+				writeArray(m_slotPort);
+				writeArray(m_linkFrom);
+				writeArray(m_linkPort);
+			} else if(format.length() > 0) {
+				System.err.println("Error: unknown metrics format "+format+", use csv or bin");
+			}
+		} catch (IOException e) {
+			System.err.println("Error: could not open metrics file "+filename);
+		}
+	}
+
+	/*
+	 * Write the counters of a sample. CSV holds a row for each non-zero
+	 * counter; binary holds the sample number and every array in full,
+	 * after a header of the number of VCs and the slot and link layouts
+	 */
+	public static void writeSample(int sample) {
+		if(m_csv != null) {
+			for(int l=0; l<m_linkFlits.length; l++)
+				if(m_linkFlits[l] != 0)
+					m_csv.println(sample+",link_flits,"+l+","+m_linkFrom[l]+","+m_linkPort[l]+",,"+m_linkFlits[l]);
+			writeCsv(sample, "credit_stalls", m_creditStalls, m_numVCs);
+			writeCsv(sample, "blocked", m_blocked, m_numVCs);
+			writeCsv(sample, "vc_alloc_fails", m_vcAllocFails, 0);
+		}
+
+		if(m_bin != null) {
+			try {
+				m_bin.writeInt(sample);
+				writeArray(m_linkFlits);
+				writeArray(m_creditStalls);
+				writeArray(m_blocked);
+				writeArray(m_vcAllocFails);
+			} catch (IOException e) {
+				System.err.println("Error: could not write metrics");
+				m_bin = null;
+			}
+		}
+	}
+
+	/*
+	 * Write the non-zero counters of an array indexed by VC slot, or by port 
+	 * slot if vcs is 0
+	 */
+	private static void writeCsv(int sample, String name, int[] counts, int vcs) {
+		for(int i=0; i<counts.length; i++) {
+			if(counts[i] != 0) {
+				int slot = vcs == 0 ? i : i / vcs;
+				m_csv.println(sample+","+name+",,"+m_slotRouter[slot]+","+m_slotPort[slot]+","+
+						(vcs == 0 ? "" : Integer.toString(i % vcs))+","+counts[i]);
+			}
+		}
+	}
+
+	private static void writeArray(int[] a) throws IOException {
+		m_bin.writeInt(a.length);
+		for(int x : a)
+			m_bin.writeInt(x);
+	}
+
+	public static void close() {
+		if(m_csv != null)
+			m_csv.close();
+		try {
+			if(m_bin != null)
+				m_bin.close();
+		} catch (IOException e) {
+			System.err.println("Error: could not write metrics");
+		}
+		m_csv = null;
+		m_bin = null;
+	}
+
+	public static int getLinkFlits(int linkId)                      { return m_linkFlits[linkId]; }
+	public static int getCreditStalls(int router, int port, int vc) { return m_creditStalls[(m_portBase[router] + port) * m_numVCs + vc]; }
+	public static int getBlocked(int router, int port, int vc)      { return m_blocked[(m_portBase[router] + port) * m_numVCs + vc]; }
+	public static int getVCAllocFails(int router, int port)         { return m_vcAllocFails[m_portBase[router] + port]; }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+package sim.stats;
+
+/*
+ * MSER-5 truncation of the start of a series of observations. The series is
+ * grouped into batches of 5, and the truncation point is the number of
+ * batches d that minimises the marginal standard error of the rest,
+ *
+ *     MSER(d) = sum_{i>=d} (Z_i - mean_d)^2 / (n-d)^2
+ *
+ * As usual, a truncation of half the batches or more means the series is
+ * still too short to tell, so none is found. Nor is one found before there
+ * are MIN_BATCHES batches: with only a few, the last two batches of any
+ * series, even a steadily rising one, would pass
+ */
+public class Mser {
+
+	private static final int BATCH       = 5;
+	private static final int MIN_BATCHES = 10;
+
+	private double[] m_batches;
+	private int      m_numBatches;
+	private double   m_current;
+	private int      m_currentCount;
+	private int      m_truncation;
+
+	public Mser() {
+		m_batches = new double[16];
+		clear();
+	}
+
+	/*
+	 * Add an observation, finding the truncation again on each full batch
+	 */
+	public void add(double x) {
+		m_current += x;
+		if(++m_currentCount < BATCH)
+			return;
+		if(m_numBatches == m_batches.length) {
+			double[] batches = new double[2 * m_batches.length];
+			System.arraycopy(m_batches, 0, batches, 0, m_numBatches);
+			m_batches = batches;
+		}
+		m_batches[m_numBatches++] = m_current / BATCH;
+		m_current = 0;
+		m_currentCount = 0;
+		m_truncation = findTruncation();
+	}
+
+	/*
+	 * Walk back from the end keeping the sums of the batch means and their
+	 * squares over the tail, so every d is tried in one pass
+	 */
+	private int findTruncation() {
+		if(m_numBatches < MIN_BATCHES)
+			return -1;
+		double sum = 0;
+		double sumSq = 0;
+		double best = Double.POSITIVE_INFINITY;
+		int bestD = -1;
+		for(int d=m_numBatches-1; d>=0; d--) {
+			sum += m_batches[d];
+			sumSq += m_batches[d] * m_batches[d];
+			int m = m_numBatches - d;
+			if(m < 2)
+				continue;
+			double mser = Math.max(0, sumSq - sum * sum / m) / ((double) m * m);
+			if(mser <= best) {
+				best = mser;
+				bestD = d;
+			}
+		}
+		return 2 * bestD < m_numBatches ? bestD : -1;
+	}
+
+	public void clear() {
+		m_numBatches = 0;
+		m_current = 0;
+		m_currentCount = 0;
+		m_truncation = -1;
+	}
+
+	/*
+	 * The number of observations to truncate, or -1 if none is found yet
+	 */
+	public int truncation() {
+		return m_truncation < 0 ? -1 : m_truncation * BATCH;
+	}
+
+	public int count() { return m_numBatches * BATCH + m_currentCount; }
+}
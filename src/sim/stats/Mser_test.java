@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2010, James Hanlon
+ * All rights reserved.
+ * 
+ * Made available under the BSD license - see the LICENSE file
+ */ 
+
+package sim.stats;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class Mser_test {
+
+	@Test
+	public void testTooShort() {
+		Mser m = new Mser();
+		for(int i=0; i<49; i++)
+			m.add(10);
+		assertEquals(-1, m.truncation());
+		m.add(10);
+		assertEquals(0, m.truncation());
+		assertEquals(50, m.count());
+	}
+
+	@Test
+	public void testTransient() {
+		Mser m = new Mser();
+
+		// A ramp over 25 observations, then steady with a little noise
+		for(int i=0; i<25; i++)
+			m.add(100 - 4 * i);
+		assertEquals(-1, m.truncation());
+		for(int i=0; i<100; i++)
+			m.add(i % 2 == 0 ? 1 : -1);
+		assertEquals(25, m.truncation());
+	}
+
+	@Test
+	public void testShortRamp() {
+		Mser m = new Mser();
+		for(int i=0; i<20; i++)
+			m.add(i);
+		assertEquals(-1, m.truncation());
+		for(int i=20; i<100; i++)
+			m.add(i);
+		assertEquals(-1, m.truncation());
+	}
+
+	@Test
+	public void testStillRising() {
+		Mser m = new Mser();
+		for(int i=0; i<200; i++)
+			m.add(i * i);
+		assertEquals(-1, m.truncation());
+		m.clear();
+		assertEquals(0, m.count());
+		assertEquals(-1, m.truncation());
+	}
+}
@@ -6,6 +6,8 @@
  */ 
 package sim.stats;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 
 import sim.Config;
@@ -21,15 +23,28 @@ public class Stats {
 	// Average for each sample
 	private static Average             m_hops;
 	private static Average             m_latency;
+	private static Average             m_sourceDelay;
 	private static Average[]           m_accepted;
 	
-	// Record batch averages to calc stdDev and error
-	private static LinkedList<Average> m_batchLatency;
-	private static LinkedList<Average> m_batchAccepted;
+	// Average over every flit, measured or not, for finding the warmup
+	private static Average             m_warmupLatency;
+	
+	// Distributions for each sample, merged into those of the run
+	private static Histogram           m_flitLatency;
+	private static Histogram           m_packetLatency;
+	private static Histogram           m_packetHops;
+	private static Histogram           m_runFlitLatency;
+	private static Histogram           m_runPacketLatency;
+	private static Histogram           m_runPacketHops;
+	
+	// Sample means of the current run, for stdDev and error
+	private static BatchMeans          m_batchLatency;
+	private static BatchMeans          m_batchAccepted;
 	
 	// Average for each simulation run
 	private static LinkedList<Average> m_overallLatency;
 	private static LinkedList<Average> m_overallHops;
+	private static LinkedList<Average> m_overallSourceDelay;
 	private static LinkedList<Average> m_overallAccepted;
 	private static LinkedList<Average> m_overallAcceptedMin;
 	
@@ -42,9 +57,6 @@ public class Stats {
 	private static double    m_currAcceptedMin;
 	private static double    m_changeAccepted;
 	
-	private static double    m_stdDevLatency;
-	private static double    m_stdDevAccepted;
-	
 	private static int       m_totalGenPackets;
 	private static int       m_totalRecPackets;
 	
@@ -54,16 +66,26 @@ public class Stats {
 
 		m_latency = new Average();
 		m_hops = new Average();
+		m_sourceDelay = new Average();
+		m_warmupLatency = new Average();
 		m_accepted = new Average[Simulator.numNodes()];
 		
 		for(int i=0; i<m_accepted.length; i++)
 			m_accepted[i] = new Average();
 		
-		m_batchLatency       = new LinkedList<Average>();
-		m_batchAccepted      = new LinkedList<Average>();
+		m_flitLatency      = new Histogram();
+		m_packetLatency    = new Histogram();
+		m_packetHops       = new Histogram();
+		m_runFlitLatency   = new Histogram();
+		m_runPacketLatency = new Histogram();
+		m_runPacketHops    = new Histogram();
+		
+		m_batchLatency       = new BatchMeans();
+		m_batchAccepted      = new BatchMeans();
 		
 		m_overallLatency     = new LinkedList<Average>();
 		m_overallHops        = new LinkedList<Average>();
+		m_overallSourceDelay = new LinkedList<Average>();
 		m_overallAccepted    = new LinkedList<Average>();
 		m_overallAcceptedMin = new LinkedList<Average>();
 		
@@ -85,6 +107,7 @@ public class Stats {
 		for(int i=0; i<Config.simRuns(); i++) {
 			m_overallLatency.clear();
 			m_overallHops.clear();
+			m_overallSourceDelay.clear();
 			m_overallAccepted.clear();
 			m_overallAcceptedMin.clear();
 		}
@@ -97,38 +120,54 @@ public class Stats {
 		m_totalGenPackets = 0;
 		m_totalRecPackets = 0;
 		m_latency.clear();
+		m_sourceDelay.clear();
+		m_runFlitLatency.clear();
+		m_runPacketLatency.clear();
+		m_runPacketHops.clear();
+		m_batchLatency.clear();
+		m_batchAccepted.clear();
 		
 		m_overallLatency.add(new Average(x));
 		m_overallHops.add(new Average(x));
+		m_overallSourceDelay.add(new Average(x));
 		m_overallAccepted.add(new Average(x));
 		m_overallAcceptedMin.add(new Average(x));
 	}
 	
-	public static void endSimRun() {
-		
-		// confidence = 95%, 100 samples/batches
-		// 1.984217
-		double t = 1.984217;
-		
-		// Calculate latency std dev
-		double sum = 0;
-		double batchMean = m_overallLatency.getLast().average();
-		for(Average b : m_batchLatency) {
-			sum += Math.pow(batchMean - b.average(), 2);
-		}
-		m_stdDevLatency = 1.0 / (double)(Config.numSamples()-1) * sum;
-		double error = (Math.sqrt(m_stdDevLatency) * t) / Math.sqrt(Config.numSamples()); 
-		m_overallLatency.getLast().setError(error);
-		
-		// Calculate throughput std dev
-		sum = 0;
-		batchMean = m_overallAccepted.getLast().average();
-		for(Average b : m_batchAccepted) {
-			sum += Math.pow(batchMean - b.average(), 2);
+	/*
+	 * Forget the last simulation run, such as one that saturated
+	 */
+	public static void discardSimRun() {
+		m_overallLatency.removeLast();
+		m_overallHops.removeLast();
+		m_overallSourceDelay.removeLast();
+		m_overallAccepted.removeLast();
+		m_overallAcceptedMin.removeLast();
+	}
+	
+	/*
+	 * Forget the simulation runs at or above a rate, such as those of a sweep
+	 * found to be past saturation after they were run
+	 */
+	public static void discardSimRunsFrom(double x) {
+		for(int i=m_overallLatency.size()-1; i>=0; i--) {
+			if(m_overallLatency.get(i).x() >= x) {
+				m_overallLatency.remove(i);
+				m_overallHops.remove(i);
+				m_overallSourceDelay.remove(i);
+				m_overallAccepted.remove(i);
+				m_overallAcceptedMin.remove(i);
+			}
 		}
-		m_stdDevAccepted = 1.0 / (double)(Config.numSamples()-1) * sum;
-		error = (Math.sqrt(m_stdDevAccepted) * t) / Math.sqrt(Config.numSamples()); 
-		m_overallAccepted.getLast().setError(error);
+	}
+	
+	/*
+	 * Set the 95% confidence interval of the run averages from the batch 
+	 * means of the samples
+	 */
+	public static void endSimRun() {
+		m_overallLatency.getLast().setError(m_batchLatency.halfWidth());
+		m_overallAccepted.getLast().setError(m_batchAccepted.halfWidth());
 	}
 	
 	/*
@@ -137,6 +176,11 @@ public class Stats {
 	public static void newSamplePhase() {		
 		m_hops.clear();
 		m_latency.clear();
+		m_sourceDelay.clear();
+		m_warmupLatency.clear();
+		m_flitLatency.clear();
+		m_packetLatency.clear();
+		m_packetHops.clear();
 		for(int i=0; i<m_accepted.length; i++)
 			m_accepted[i].clear();
 	}
@@ -155,38 +199,59 @@ public class Stats {
 	}
 	
 	/*
-	 * Add batch sample mean to sim run avg and record the previous batch means (for stddev)
+	 * Add batch sample mean to sim run avg and to the batch means (for stddev)
 	 */
 	public static void addSample() {
 		m_overallLatency.getLast().addSample(m_currLatency);
 		m_overallHops.getLast().addSample(m_hops.average());
+		m_overallSourceDelay.getLast().addSample(m_sourceDelay.average());
 		m_overallAccepted.getLast().addSample(m_currAccepted);
 		m_overallAcceptedMin.getLast().addSample(m_currAcceptedMin);
 		
-		m_batchLatency.add(new Average(m_currLatency));
-		m_batchAccepted.add(new Average(m_currAccepted));
+		m_batchLatency.add(m_currLatency);
+		m_batchAccepted.add(m_currAccepted);
+		
+		m_runFlitLatency.merge(m_flitLatency);
+		m_runPacketLatency.merge(m_packetLatency);
+		m_runPacketHops.merge(m_packetHops);
 	}
 	
 	/*
-	 * Called when a packet is retired, or when a packet could have been retired (flit==null)
+	 * Called when a packet is retired, with the flit that completed it
 	 */
-	public static void retirePacket(int nodeId, Flit flit) {
+	public static void retirePacket(int nodeId, int flit) {
 		m_totalRecPackets++;
+		if(Flit.isMmt(flit)) {
+			m_packetLatency.record(Flit.getLatency(flit));
+			m_packetHops.record(Flit.getHops(flit));
+		}
 		//if(Simulator.getState().equals(SimState.DRAINING)) {
 			//System.out.println("Retired a packet");
 		//}
 	}
 	
 	/*
-	 * Calculate throughput on a flit level. If flit==null it is spare capacity
+	 * Called when the header of a packet leaves its source queue, to record how
+	 * long the packet waited there
 	 */
-	public static void retireFlit(int nodeId, Flit flit) {
-		if(flit != null && flit.isMmt()) {
-			m_latency.addSample(flit.getLatency());
-			m_hops.addSample(flit.getHops());
+	public static void injectPacket(int header) {
+		if(Flit.isMmt(header))
+			m_sourceDelay.addSample(Simulator.clock() - Flit.getInjTime(header));
+	}
+	
+	/*
+	 * Calculate throughput on a flit level. If flit==Flit.NONE it is spare capacity
+	 */
+	public static void retireFlit(int nodeId, int flit) {
+		if(flit != Flit.NONE)
+			m_warmupLatency.addSample(Flit.getLatency(flit));
+		if(flit != Flit.NONE && Flit.isMmt(flit)) {
+			m_latency.addSample(Flit.getLatency(flit));
+			m_hops.addSample(Flit.getHops(flit));
+			m_flitLatency.record(Flit.getLatency(flit));
 		}
 		if(!Simulator.draining()) {
-			m_accepted[nodeId].addSample(flit != null ? 1 : 0);
+			m_accepted[nodeId].addSample(flit != Flit.NONE ? 1 : 0);
 		}
 	}
 	
@@ -214,18 +279,60 @@ public class Stats {
 			"Packets received     "+m_totalRecPackets+"\n"+
 			"Overall latency      "+m_overallLatency.getLast().average()+"\n"+
 			"Overall hops         "+String.format("%.2f", m_overallHops.getLast().average())+"\n"+
+			"Overall source delay "+String.format("%.2f", m_overallSourceDelay.getLast().average())+"\n"+
 			"Overall accepted     "+String.format("%f", m_overallAccepted.getLast().average())+"\n"+
 			"Overall min accepted "+String.format("%.2f", m_overallAcceptedMin.getLast().average())+"\n"+
-			"Latency std dev      "+m_stdDevLatency+"\n"+
-			"Acceped std dev      "+m_stdDevAccepted+"\n"+
+			"Latency std dev      "+m_batchLatency.stdDev()+"\n"+
+			"Acceped std dev      "+m_batchAccepted.stdDev()+"\n"+
+			"Latency 95% CI       +/- "+String.format("%.2f", m_batchLatency.halfWidth())+
+				" ("+m_batchLatency.numBatches()+" batches of "+m_batchLatency.batchSize()+")\n"+
+			"Flit latency         "+m_runFlitLatency.percentiles()+"\n"+
+			"Packet latency       "+m_runPacketLatency.percentiles()+"\n"+
+			"Packet hops          "+m_runPacketHops.percentiles()+"\n"+
 			"---------------------------------------------------";
 	}
 
+	/*
+	 * The latency and throughput of every simulation run, in order of the 
+	 * injection rate
+	 */
+	public static String dumpCurve() {
+		Integer[] runs = new Integer[m_overallLatency.size()];
+		for(int i=0; i<runs.length; i++)
+			runs[i] = i;
+		Arrays.sort(runs, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(m_overallLatency.get(a).x(), m_overallLatency.get(b).x());
+			}
+		});
+		String s = "[CURVE]============================================\n";
+		s += String.format("%-12s%-12s%-12s%-12s%-12s\n", 
+				"Rate", "Latency", "+/-", "Accepted", "+/-");
+		for(int i : runs) {
+			Average l = m_overallLatency.get(i);
+			Average a = m_overallAccepted.get(i);
+			s += String.format("%-12.4f%-12.2f%-12.2f%-12.4f%-12.4f\n", 
+					l.x(), l.average(), l.error(), a.average(), a.error());
+		}
+		return s + "---------------------------------------------------";
+	}
+
 	public static int     packetsGenerated()  { return m_totalGenPackets; }
 	public static int     packetsReceived()   { return m_totalRecPackets; }
 	public static double  throughputChange()  { return m_changeAccepted; }
 	public static double  latencyChange()     { return m_changeLatency; }
 	public static double  currLatency()       { return m_currLatency; }
+	public static double  warmupLatency()     { return m_warmupLatency.average(); }
 	public static double  currThroughput()    { return m_currAccepted; }
+	public static double  runAccepted()       { return m_overallAccepted.getLast().average(); }
+	public static double  runLatency()        { return m_overallLatency.getLast().average(); }
+	public static long    currLatencyP99()    { return m_packetLatency.percentile(99); }
+	public static BatchMeans batchLatency()   { return m_batchLatency; }
+	public static BatchMeans batchAccepted()  { return m_batchAccepted; }
+	
+	public static Histogram flitLatency()     { return m_runFlitLatency; }
+	public static Histogram packetLatency()   { return m_runPacketLatency; }
+	public static Histogram packetHops()      { return m_runPacketHops; }
 	public static void    newPacket()         { m_totalGenPackets++; }
+	public static void    addPacketsInFlight(int n) { m_totalGenPackets += n; }
 }
@@ -78,8 +78,7 @@ public class Mesh {
 		int port = -1;
 		
 		//System.out.print("get left port of node "+node+": ");
-		for(int d = 0; d <= dim; d++) {
-			int kToD = (int) Math.pow(_k, d);
+		for(int d = 0, kToD = 1; d <= dim; d++, kToD *= _k) {
 			int posInDim = (node / kToD) % _k;
 			
 			//System.out.print("D"+d+" pos="+posInDim);
@@ -99,8 +98,7 @@ public class Mesh {
 		int port = -1;
 		
 		//System.out.print("get right port of node "+node+": ");
-		for(int d = 0; d <= dim; d++) {
-			int kToD = (int) Math.pow(_k, d);
+		for(int d = 0, kToD = 1; d <= dim; d++, kToD *= _k) {
 			int posInDim = (node / kToD) % _k;
 			
 			//System.out.print("D"+d+" pos="+posInDim);
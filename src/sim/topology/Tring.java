@@ -17,7 +17,19 @@ public class Tring {
 	private static int right_port = 1;
 	private static int up_port	  = 2;
 	private static int down_port  = 2;
-
+	
+	// Coordinates of every node, built once for a k and n so routing reads
+	// them rather than working them out again for every header.
+	private static int   _k = -1;
+	private static int   _n = -1;
+	private static int[] _level;
+	private static int[] _ring;
+	private static int[] _r_nid;
+	private static int[] _no_conn;
+	private static int[] _left;
+	private static int[] _right;
+	private static int[] _up;
+	private static int[] _down;
 	
 	/* Start building a ring.
 	 * k nodes should connect each other and then create a tree for n levels,
@@ -68,23 +80,23 @@ public class Tring {
 
 		
 		int no_nodes = CalculateNoNodes(k, n);
-		int no_conn;
+		
+		BuildCoordinates(k, n);
 		
 		Node[] nodes = new Node[no_nodes];
 		
 		// Create all nodes
 		for(int node=0; node<no_nodes;node++){
-			no_conn = CalculateNoConnections(node, k, n);
-			nodes[node] = new Node(node, no_conn, no_conn);
+			nodes[node] = new Node(node, _no_conn[node], _no_conn[node]);
 		}
 		
 		// Connect them
 		for (int node=0; node<no_nodes; node++){
 			
-			int left_node = GetLeftNode(node, k);
-			int right_node = GetRightNode(node, k);
-			int upper_node = GetUpNode(node, k);
-			int lower_node = GetDownNode(node, k, n);
+			int left_node = _left[node];
+			int right_node = _right[node];
+			int upper_node = _up[node];
+			int lower_node = _down[node];
 			
 			// Connect to left node.
 			if (left_node != -1){
@@ -111,6 +123,43 @@ public class Tring {
 		return nodes;
 	}
 	
+	public static void BuildCoordinates(int k, int n){
+		/* Work out the coordinates and neighbours of every node in a Tring,
+		 * unless they are already held for the same k and n.
+		 * 
+		 * Args:
+		 * 		k		:	no. of nodes in a ring
+		 * 		n		:	levels in Tring.		
+		 */
+		if (_level != null && _k == k && _n == n)
+			return;
+		
+		int no_nodes = CalculateNoNodes(k, n);
+		
+		_level   = new int[no_nodes];
+		_ring    = new int[no_nodes];
+		_r_nid   = new int[no_nodes];
+		_no_conn = new int[no_nodes];
+		_left    = new int[no_nodes];
+		_right   = new int[no_nodes];
+		_up      = new int[no_nodes];
+		_down    = new int[no_nodes];
+		
+		for (int node=0; node<no_nodes; node++){
+			_level[node]   = LevelOfNode(node, k);
+			_ring[node]    = RingOfNode(node, k);
+			_r_nid[node]   = NodeWithinRing(node, k);
+			_no_conn[node] = CalculateNoConnections(node, k, n);
+			_left[node]    = GetLeftNode(node, k);
+			_right[node]   = GetRightNode(node, k);
+			_up[node]      = GetUpNode(node, k);
+			_down[node]    = GetDownNode(node, k, n);
+		}
+		
+		_k = k;
+		_n = n;
+	}
+	
 	public static ArrayList<Integer> ReturnNodesLowerRing(int node, int k, int n){
 		/* Returns an array containing the no. of the nodes connecting in the
 		 * lower ring 
@@ -143,7 +192,9 @@ public class Tring {
 		if (k == 0)
 			return null;
 		
-		int down_node = GetDownNode(node, k, n);
+		BuildCoordinates(k, n);
+		
+		int down_node = _down[node];
 		
 		if (down_node == -1)
 			return null;
@@ -156,7 +207,7 @@ public class Tring {
 		int next_node = down_node;
 		
 		for (int i=0; i<k-1; i++){
-			array[i] = GetLeftNode(next_node, k);
+			array[i] = _left[next_node];
 			next_node = array[i];
 		}
 		
@@ -965,4 +1016,15 @@ public class Tring {
 	public static int	GetUpPort()			{ return up_port;	}
 	public static int	GetDownPort()		{ return down_port;	}
 	
+	// Coordinate arrays indexed by node, valid after create() or
+	// BuildCoordinates()
+	public static int[]	GetLevels()			{ return _level;	}
+	public static int[]	GetRings()			{ return _ring;		}
+	public static int[]	GetNodesWithinRing(){ return _r_nid;	}
+	public static int[]	GetNoConnections()	{ return _no_conn;	}
+	public static int[]	GetLeftNodes()		{ return _left;		}
+	public static int[]	GetRightNodes()		{ return _right;	}
+	public static int[]	GetUpNodes()		{ return _up;		}
+	public static int[]	GetDownNodes()		{ return _down;		}
+	
 }
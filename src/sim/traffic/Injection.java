@@ -6,7 +6,12 @@
  */ 
 package sim.traffic;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 import sim.Config;
+import sim.SimParams;
 import sim.Simulator;
 
 public class Injection {
@@ -14,7 +19,7 @@ public class Injection {
 	private static int[] m_nodeStates;
 	
 	public static int getPacketLen(int source) {
-		switch(Config.injection()) {
+		switch(Config.params().injection) {
 		case BERNOULLI: return Injection.bernoulli(source);
 		case ONOFF:     return Injection.onOff(source);
 		default:        return -1;
@@ -26,8 +31,9 @@ public class Injection {
 	 */
 	private static int bernoulli(int source) {
 		//return Config.packetSize();
-		return (Simulator.randDouble() < (Config.injectionRate() / 
-				(double)Config.packetSize())) ? Config.packetSize() : 0;
+		SimParams params = Config.params();
+		return (Simulator.randDouble() < (params.injectionRate / 
+				(double)params.packetSize)) ? params.packetSize : 0;
 		//return (Simulator.randDouble() < Config.injectionRate()) ? Config.packetSize() : 0;
 	}
 
@@ -44,26 +50,45 @@ public class Injection {
 		    	m_nodeStates[n] = 0;
 		}
 
+		SimParams params = Config.params();
+		
 		// advance state: off -> on OR on -> off
 		if(m_nodeStates[source] == 0) {
-			if(Simulator.randDouble() < Config.burstAlpha()) {
+			if(Simulator.randDouble() < params.burstAlpha) {
 				m_nodeStates[source] = 1;
 			}
-		} else if (Simulator.randDouble() < Config.burstBeta()) {
+		} else if (Simulator.randDouble() < params.burstBeta) {
 			m_nodeStates[source] = 0;
 		}
 
 		// generate packet
 		if(m_nodeStates[source] == 1) {
-			double r1 = (Config.injectionRate() * (1.0 + Config.burstBeta() / Config.burstAlpha())) 
-					/ (double)Config.packetSize();
+			double r1 = (params.injectionRate * (1.0 + params.burstBeta / params.burstAlpha)) 
+					/ (double)params.packetSize;
 			if (Simulator.randDouble() < r1)
-				return Config.packetSize();
+				return params.packetSize;
 		}
 
 		return 0;
 	}
 	
+	/*
+	 * Write the on/off state of every node, if there is one
+	 */
+	public static void write(DataOutputStream out) throws IOException {
+		out.writeInt(m_nodeStates == null ? -1 : m_nodeStates.length);
+		if(m_nodeStates != null)
+			for(int s : m_nodeStates)
+				out.writeInt(s);
+	}
+	
+	public static void read(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		m_nodeStates = n < 0 ? null : new int[n];
+		for(int i=0; i<n; i++)
+			m_nodeStates[i] = in.readInt();
+	}
+	
 	public static void reset() {
 		if(m_nodeStates != null) {
 		    for(int n = 0; n < m_nodeStates.length; n++)
@@ -28,7 +28,7 @@ public class Traffic {
 			return -1;
 		}*/
 		
-		switch(Config.traffic()) {
+		switch(Config.params().traffic) {
 		case UNIFORM:    return Traffic.uniform(source);
 		case BITCOMP:    return Traffic.bitcomp(source);
 		case BITREV:     return Traffic.bitrev(source);
@@ -115,9 +115,9 @@ public class Traffic {
 	private static int tornado(int source) {
 		int offset = 1;
 		int dest = 0;
-	  	int k = Config.k();
+	  	int k = Config.params().k;
 
-	  	for(int n = 0; n < Config.n(); n++) {
+	  	for(int n = 0; n < Config.params().n; n++) {
 	  		dest += offset * (((source / offset) % k + (k/2 - 1)) % k);
 	  		offset *= 2;
 	  	}
@@ -128,9 +128,9 @@ public class Traffic {
 	private static int neighbour(int source) {
 		int offset = 1;
 		int dest = 0;
-		int k = Config.k();
+		int k = Config.params().k;
 	  
-		for ( int n = 0; n < Config.n(); ++n ) {
+		for ( int n = 0; n < Config.params().n; ++n ) {
 			dest += offset * (((source / offset) % k + 1) % k);
 			offset *= k;
 		}